@@ -40,6 +40,8 @@ public final class Constants {
     public static final String PLUGIN_SETTINGS_KEY_CHECKED = "isChecked";
     public static final String PLUGIN_SETTINGS_KEY_UUID = "uuid";
     public static final String PLUGIN_SETTINGS_KEY_BRAND = "brand";
+    public static final String PLUGIN_SETTINGS_KEY_WARM_UP = "warmUp";
+    public static final String PLUGIN_SETTINGS_SECTION_VERSION_CHECK = "versionCheck";
 
     // Data Model
     public static final String ENML_MODEL_NOTE_NOTEGUID = "Note.guid";
@@ -89,14 +91,6 @@ public final class Constants {
     public static final String ENML_DOCTYPE_PUBLIC = "PUBLIC";
     public static final String ENML_DOCTYPE_SYSTEM = "SYSTEM";
     public static final String ENML_DOCTYPE = "DOCTYPE";
-    /*
-     * Regex: assume > does not appear in the value for the attributes, and the
-     * XML is valid.
-     */
-    public static final String ENML_TAG_EN_NOTE_SELF_CLOSING_REGEX = "(<"+ENML_TAG_EN_NOTE+"[^>]*)/>";
-    public static final String ENML_TAG_EN_NOTE_SELF_CLOSING_REPLACEMENT = "$1></" + ENML_TAG_EN_NOTE + ">";
-    public static final String ENML_TAG_EN_NOTE_START_REGEX = "(<" + ENML_TAG_EN_NOTE + "[^>]*>)";
-    public static final String ENML_TAG_EN_NOTE_START_REPLACEMENT_P1 = "$1";
 
     public static final String FONT_STYLE_NORMAL = "normal";
     public static final String FONT_STYLE_BOLD = "bold";
@@ -105,6 +99,7 @@ public final class Constants {
     public static final String HTML_NBSP = "&nbsp;";
 
     public static final String EDAM_SYNTAX_INTITLE = "intitle:";
+    public static final String EDAM_TOKEN_USER_ID = "U=";
     /* end */
 
     // OAuth
@@ -131,6 +126,7 @@ public final class Constants {
     // Plug-in
     public static final String PLUGIN_DEBUG_MODE = "org.lttpp.eemory.debug";
     public static final String PLUGIN_RUN_ON_SANDBOX = "com.evernote.sandbox";
+    public static final String PLUGIN_ENML_VALIDATION = "org.lttpp.eemory.enmlValidation";
 
     // Button properties
     public static final String Plugin_OAuth_AuthExpired_ReAuth = "Plugin_OAuth_AuthExpired_ReAuth";
@@ -138,6 +134,52 @@ public final class Constants {
     public static final String Plugin_OAuth_Copy = "Plugin_OAuth_Copy";
     public static final String Plugin_OAuth_Cancel = "Plugin_OAuth_Cancel";
 
+    // Client
+    public static final int CLIPPER_REGISTRY_SIZE = 8;
+    public static final String LINKED_NOTEBOOK_THREAD_NAME = "Eemory linked notebook";
+    public static final int LINKED_NOTEBOOK_THREADS = 8;
+    public static final long LINKED_NOTEBOOK_TIMEOUT = 10 * 1000; // milliseconds
+    public static final String METADATA_REFRESH_THREAD_NAME = "Eemory metadata refresh";
+    public static final int METADATA_REFRESH_THREADS = 2;
+    public static final long METADATA_CACHE_TTL = 5 * 60 * 1000; // milliseconds
+    public static final int SYNC_CHUNK_MAX_ENTRIES = 256;
+    public static final String NOTE_INDEX_FOLDER = "note-index";
+    public static final String NOTE_INDEX_STATE = "state";
+    public static final String NOTE_INDEX_EXTENSION = ".idx";
+    public static final String NOTE_INDEX_TMP_EXTENSION = ".tmp";
+    public static final int NOTE_INDEX_JOURNAL_MAX = 1024;
+    public static final String NOTE_SEARCH_THREAD_NAME = "Eemory note search";
+    public static final int NOTE_SEARCH_DELAY = 300; // milliseconds
+    public static final int NOTE_SEARCH_MAX_NOTES = 50;
+    public static final int NOTE_SEARCH_CACHE_SIZE = 32;
+    public static final String NOTE_PAGE_THREAD_NAME = "Eemory note page";
+    public static final int NOTE_PAGE_THREADS = 4;
+    public static final long CLIENT_HEALTH_IDLE_TIMEOUT = 15 * 60 * 1000; // milliseconds
+    public static final long VERSION_CHECK_INTERVAL = 24 * 60 * 60 * 1000; // milliseconds
+    public static final int THRIFT_CONNECT_TIMEOUT = Integer.getInteger("org.lttpp.eemory.connectTimeout", 30 * 1000); // milliseconds
+    public static final int THRIFT_READ_TIMEOUT = Integer.getInteger("org.lttpp.eemory.readTimeout", 5 * 60 * 1000); // milliseconds
+    public static final int NOTE_STORE_POOL_SIZE = Integer.getInteger("org.lttpp.eemory.noteStorePoolSize", 4); // idle clients per shard
+    public static final long RATE_LIMIT_MAX_WAIT = 60 * 1000; // milliseconds
+    public static final int REQUEST_RATE_LIMIT_RETRIES = 2;
+    public static final int REQUEST_TRANSPORT_RETRIES = 3;
+    public static final long REQUEST_BACK_OFF_BASE = 500; // milliseconds
+    public static final long REQUEST_BACK_OFF_MAX = 8 * 1000; // milliseconds
+    public static final String OUTBOX_FOLDER = "outbox";
+    public static final String OUTBOX_CLIP_EXTENSION = ".clip";
+    public static final String OUTBOX_TMP_EXTENSION = ".tmp";
+    public static final String OUTBOX_FAILED_EXTENSION = ".failed";
+    public static final String OUTBOX_THREAD_NAME = "Eemory outbox";
+    public static final int OUTBOX_MAX_CLIPS = 200;
+    public static final long OUTBOX_MAX_SIZE = 100 * 1024 * 1024; // bytes
+    public static final int OUTBOX_MAX_FAILED_CLIPS = 20;
+    public static final long OUTBOX_FAILED_MAX_AGE = 30L * 24 * 60 * 60 * 1000; // milliseconds
+    public static final long OUTBOX_RETRY_DELAY = 60 * 1000; // milliseconds
+    public static final String CLIP_THREAD_NAME = "Eemory clip";
+    public static final int CLIP_THREADS = 4;
+    public static final int CLIP_QUEUE_CAPACITY = 64;
+    public static final int NOTE_CONTENT_CACHE_SIZE = 16;
+    public static final int NOTE_CONTENT_CACHE_MAX_LENGTH = 1024 * 1024; // characters
+
     // Others
     public static final String FileNamePartSimpleDateFormat = "yyyy-MM-dd'T'HH-mm-ss-";
     public static final String TAGS_SEPARATOR = ConstantsUtil.COMMA;
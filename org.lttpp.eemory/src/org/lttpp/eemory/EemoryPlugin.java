@@ -2,6 +2,7 @@ package org.lttpp.eemory;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.lttpp.eemory.client.StoreMetrics;
 import org.osgi.framework.BundleContext;
 
 /**
@@ -27,6 +28,7 @@ public class EemoryPlugin extends AbstractUIPlugin {
 
     @Override
     public void stop(final BundleContext context) throws Exception {
+        StoreMetrics.dump();
         plugin = null;
         super.stop(context);
     }
@@ -0,0 +1,74 @@
+package org.lttpp.eemory;
+
+import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_TOKEN;
+import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_WARM_UP;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.IStartup;
+import org.lttpp.eemory.client.EeClipper;
+import org.lttpp.eemory.client.EeClipperFactory;
+import org.lttpp.eemory.util.EncryptionUtil;
+import org.lttpp.eemory.util.IDialogSettingsUtil;
+import org.lttpp.eemory.util.LogUtil;
+
+/**
+ * Warm up the connection to Evernote in background once the workbench is
+ * started, if the user opts in, so the first clip does not pay for
+ * authentication, version check, NoteStore lookup and metadata listings while
+ * a modal progress dialog is showing.
+ *
+ * The warm-up starts as soon as the workbench is up rather than when the
+ * plug-in is first used, which is the first clip. Neither does the work
+ * twice: a clip made meanwhile waits for the clipper and the metadata the
+ * warm-up is loading, and the other way round, see {@link EeClipperFactory}
+ * and {@link org.lttpp.eemory.client.MetadataCache}.
+ */
+public class EemoryWarmUp implements IStartup {
+
+    /**
+     * Only reads the opt-in, so the startup of a workbench which does not
+     * warm up costs nothing more.
+     */
+    @Override
+    public void earlyStartup() {
+        if (!IDialogSettingsUtil.getBoolean(PLUGIN_SETTINGS_KEY_WARM_UP) || StringUtils.isBlank(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN))) {
+            return;
+        }
+
+        Job job = new Job(Messages.Plugin_Runtime_WarmUp) {
+            @Override
+            protected IStatus run(final IProgressMonitor monitor) {
+                monitor.beginTask(Messages.Plugin_Runtime_WarmUp, 3);
+                try {
+                    // authenticate, check version and create the NoteStore client
+                    EeClipper clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
+                    monitor.worked(1);
+                    if (monitor.isCanceled()) {
+                        return LogUtil.cancel();
+                    }
+                    // fill the metadata cache of the clipper
+                    clipper.listNotebooks();
+                    monitor.worked(1);
+                    if (monitor.isCanceled()) {
+                        return LogUtil.cancel();
+                    }
+                    clipper.listTags();
+                    monitor.worked(1);
+                } catch (Throwable e) {
+                    // nothing is lost, the first clip will do it the usual way and report the error
+                    LogUtil.logCancel(e);
+                    return LogUtil.cancel();
+                } finally {
+                    monitor.done();
+                }
+                return LogUtil.ok();
+            }
+        };
+        job.setSystem(true);
+        job.schedule();
+    }
+
+}
@@ -22,10 +22,15 @@ public class Messages extends NLS {
     public static String Plugin_Configs_Authenticating;
     public static String Plugin_Configs_FetchingNotebooks;
     public static String Plugin_Configs_FetchingNotes;
+    public static String Plugin_Configs_NotesFetched;
     public static String Plugin_Configs_FetchingTags;
+    public static String Plugin_Configs_WarmUp;
     public static String Plugin_Runtime_ClipFileToEvernote;
     public static String Plugin_Runtime_ClipSelectionToEvernote;
     public static String Plugin_Runtime_ClipScreenshotToEvernote_Hint;
+    public static String Plugin_Runtime_WarmUp;
+    public static String Plugin_Runtime_ClipQueued;
+    public static String Plugin_Runtime_StoreMetrics;
     public static String Plugin_Runtime_CreateNewNote;
     public static String Plugin_Runtime_CreateNewNoteInNotebook;
     public static String Plugin_Runtime_ClipToDefault;
@@ -37,6 +42,13 @@ public class Messages extends NLS {
     public static String Plugin_Error_OutOfDate;
     public static String Plugin_Error_NoFile;
     public static String Plugin_Error_NoText;
+    public static String Plugin_Error_LinkedNotebookTimeout;
+    public static String Plugin_Error_LinkedNotebookFailed;
+    public static String Plugin_Error_ClipTooLarge;
+    public static String Plugin_Error_ClipDropped;
+    public static String Plugin_Error_ClipNotSent;
+    public static String Plugin_Error_ClipsNotSent;
+    public static String Plugin_Error_TooManyClips;
     public static String Plugin_OAuth_Cancel;
     public static String Plugin_OAuth_Copy;
 
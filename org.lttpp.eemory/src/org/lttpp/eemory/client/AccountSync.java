@@ -0,0 +1,337 @@
+package org.lttpp.eemory.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.util.EvernoteUtil;
+import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+
+import com.evernote.clients.NoteStoreClient;
+import com.evernote.edam.error.EDAMNotFoundException;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.edam.notestore.NoteMetadata;
+import com.evernote.edam.notestore.SyncChunk;
+import com.evernote.edam.notestore.SyncChunkFilter;
+import com.evernote.edam.notestore.SyncState;
+import com.evernote.edam.type.LinkedNotebook;
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Notebook;
+import com.evernote.edam.type.Tag;
+import com.evernote.thrift.TException;
+
+/**
+ * Local copy of a user's notebooks, linked notebooks, tags and note titles,
+ * kept up to date by Evernote's incremental synchronization: only what has
+ * changed since the last known update sequence number is downloaded.
+ *
+ * Notebooks and tags are synchronized apart from notes, so listing notebooks
+ * does not pull every note title of the account. Note titles are kept in a
+ * {@link NoteTitleIndex} on disk, so that synchronization resumes from where
+ * it stopped across restarts.
+ *
+ * There is a single sync per account, shared by the clippers of the account,
+ * so its note index is only ever touched by one thread at a time.
+ */
+public class AccountSync {
+
+    // <Account, Sync>, clippers of an account come and go, its sync stays
+    private static final ConcurrentHashMap<String, AccountSync> syncs = MapUtil.concurrentMap();
+
+    // the factory of the latest clipper of the account
+    private volatile StoreClientFactory factory;
+
+    private final Map<String, Notebook> notebooks = MapUtil.map();
+    private final Map<String, LinkedNotebook> linkedNotebooks = MapUtil.map();
+    private final Map<String, Tag> tags = MapUtil.map();
+    private final NoteTitleIndex noteIndex;
+
+    private final SyncCursor metadataCursor = new SyncCursor() {
+        @Override
+        protected SyncChunkFilter filter() {
+            SyncChunkFilter filter = new SyncChunkFilter();
+            filter.setIncludeNotebooks(true);
+            filter.setIncludeLinkedNotebooks(true);
+            filter.setIncludeTags(true);
+            return filter;
+        }
+
+        @Override
+        protected void reset() {
+            notebooks.clear();
+            linkedNotebooks.clear();
+            tags.clear();
+        }
+
+        @Override
+        protected void apply(final SyncChunk chunk) {
+            if (chunk.isSetNotebooks()) {
+                for (Notebook n : chunk.getNotebooks()) {
+                    notebooks.put(n.getGuid(), n);
+                }
+            }
+            if (chunk.isSetLinkedNotebooks()) {
+                for (LinkedNotebook n : chunk.getLinkedNotebooks()) {
+                    linkedNotebooks.put(n.getGuid(), n);
+                }
+            }
+            if (chunk.isSetTags()) {
+                for (Tag t : chunk.getTags()) {
+                    tags.put(t.getGuid(), t);
+                }
+            }
+            if (chunk.isSetExpungedNotebooks()) {
+                for (String guid : chunk.getExpungedNotebooks()) {
+                    notebooks.remove(guid);
+                }
+            }
+            if (chunk.isSetExpungedLinkedNotebooks()) {
+                for (String guid : chunk.getExpungedLinkedNotebooks()) {
+                    linkedNotebooks.remove(guid);
+                }
+            }
+            if (chunk.isSetExpungedTags()) {
+                for (String guid : chunk.getExpungedTags()) {
+                    tags.remove(guid);
+                }
+            }
+        }
+    };
+
+    private final SyncCursor notesCursor = new SyncCursor() {
+        @Override
+        protected SyncChunkFilter filter() {
+            SyncChunkFilter filter = new SyncChunkFilter();
+            filter.setIncludeNotes(true);
+            return filter;
+        }
+
+        @Override
+        protected void restore() throws IOException {
+            setState(noteIndex.getUpdateCount(), noteIndex.getLastSyncTime());
+        }
+
+        @Override
+        protected void reset() {
+            noteIndex.clear();
+        }
+
+        @Override
+        protected void apply(final SyncChunk chunk) throws IOException {
+            if (chunk.isSetNotes()) {
+                for (Note n : chunk.getNotes()) {
+                    if (n.isActive()) {
+                        NoteMetadata metadata = new NoteMetadata(n.getGuid());
+                        metadata.setTitle(n.getTitle());
+                        metadata.setNotebookGuid(n.getNotebookGuid());
+                        metadata.setUpdateSequenceNum(n.getUpdateSequenceNum());
+                        noteIndex.put(metadata);
+                    } else {
+                        // moved to trash
+                        noteIndex.remove(n.getGuid());
+                    }
+                }
+            }
+            if (chunk.isSetExpungedNotes()) {
+                for (String guid : chunk.getExpungedNotes()) {
+                    noteIndex.remove(guid);
+                }
+            }
+        }
+
+        @Override
+        protected void committed(final int updateCount, final long lastSyncTime) {
+            try {
+                noteIndex.commit(updateCount, lastSyncTime);
+            } catch (IOException e) {
+                // the changes are still in memory, only the next restart syncs them again
+                LogUtil.logWarning(e);
+            }
+        }
+    };
+
+    public AccountSync(final StoreClientFactory factory, final NoteTitleIndex noteIndex) {
+        this.factory = factory;
+        this.noteIndex = noteIndex;
+    }
+
+    /**
+     * The sync of the account the token belongs to, which syncs through the
+     * given factory from now on. A new token of the user, e.g. after
+     * re-authentication, picks up the sync and the note index of the old one.
+     */
+    public static AccountSync forAccount(final String token, final StoreClientFactory factory) {
+        String account = EvernoteUtil.account(token);
+        AccountSync sync = syncs.get(account);
+        if (sync == null) {
+            AccountSync newSync = new AccountSync(factory, NoteTitleIndex.forAccount(account));
+            sync = syncs.putIfAbsent(account, newSync);
+            if (sync == null) {
+                return newSync;
+            }
+        }
+        sync.factory = factory;
+        return sync;
+    }
+
+    /**
+     * Bring notebooks, linked notebooks and tags up to date.
+     */
+    public synchronized void syncMetadata() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            metadataCursor.sync();
+        } catch (IOException e) {
+            // metadata is only kept in memory
+            throw new TException(e);
+        }
+    }
+
+    /**
+     * Bring note titles up to date.
+     */
+    public synchronized void syncNotes() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            notesCursor.sync();
+        } catch (IOException e) {
+            // broken index, it has been cleared, so sync all over again
+            LogUtil.logWarning(e);
+            notesCursor.forget();
+            syncNotesWithoutIndex();
+        }
+    }
+
+    private void syncNotesWithoutIndex() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            notesCursor.sync();
+        } catch (IOException e) {
+            throw new TException(e);
+        }
+    }
+
+    public synchronized boolean hasNotebook(final String guid) {
+        return notebooks.containsKey(guid);
+    }
+
+    public synchronized List<Notebook> getNotebooks() {
+        return ListUtil.toList(notebooks.values());
+    }
+
+    public synchronized List<LinkedNotebook> getLinkedNotebooks() {
+        return ListUtil.toList(linkedNotebooks.values());
+    }
+
+    public synchronized List<Tag> getTags() {
+        return ListUtil.toList(tags.values());
+    }
+
+    /**
+     * Return the notes in the given notebook, or all notes if the notebook
+     * guid is blank.
+     */
+    public List<NoteMetadata> getNotes(final String notebookGuid) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        return getNotes(notebookGuid, StringUtils.EMPTY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return at most maxNotes notes in the given notebook, or in all
+     * notebooks if the notebook guid is blank, whose title starts with the
+     * given prefix, ignoring case.
+     */
+    public synchronized List<NoteMetadata> getNotes(final String notebookGuid, final String titlePrefix, final int maxNotes) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            return noteIndex.getNotes(notebookGuid, titlePrefix, maxNotes);
+        } catch (IOException e) {
+            LogUtil.logWarning(e);
+            notesCursor.forget();
+            syncNotesWithoutIndex();
+            try {
+                return noteIndex.getNotes(notebookGuid, titlePrefix, maxNotes);
+            } catch (IOException ex) {
+                throw new TException(ex);
+            }
+        }
+    }
+
+    private abstract class SyncCursor {
+
+        private boolean restored = false;
+        private int updateCount = 0;
+        private long lastSyncTime = 0;
+
+        protected abstract SyncChunkFilter filter();
+
+        protected abstract void reset();
+
+        protected abstract void apply(SyncChunk chunk) throws IOException;
+
+        /**
+         * Pick up where the previous session stopped, if it is known.
+         */
+        protected void restore() throws IOException {
+
+        }
+
+        protected void committed(final int updateCount, final long lastSyncTime) {
+
+        }
+
+        protected void setState(final int updateCount, final long lastSyncTime) {
+            this.updateCount = updateCount;
+            this.lastSyncTime = lastSyncTime;
+        }
+
+        public void forget() {
+            setState(0, 0);
+            reset();
+        }
+
+        public void sync() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, IOException {
+            if (!restored) {
+                restored = true;
+                restore();
+            }
+            SyncState state = factory.execute(null, new NoteStoreCall<SyncState>() {
+                @Override
+                public SyncState call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, TException {
+                    return client.getSyncState();
+                }
+            });
+            if (state.getFullSyncBefore() > lastSyncTime) {
+                // the server can no longer tell what has changed since last time
+                setState(0, 0);
+                reset();
+            }
+            if (state.getUpdateCount() == updateCount) {
+                lastSyncTime = state.getCurrentTime();
+                return;
+            }
+
+            final SyncChunkFilter filter = filter();
+            filter.setIncludeExpunged(updateCount > 0);
+            int afterUSN = updateCount;
+            SyncChunk chunk;
+            do {
+                final int chunkAfterUSN = afterUSN;
+                chunk = factory.execute(null, new NoteStoreCall<SyncChunk>() {
+                    @Override
+                    public SyncChunk call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, TException {
+                        return client.getFilteredSyncChunk(chunkAfterUSN, Constants.SYNC_CHUNK_MAX_ENTRIES, filter);
+                    }
+                });
+                apply(chunk);
+                afterUSN = chunk.getChunkHighUSN();
+            } while (chunk.isSetChunkHighUSN() && afterUSN < chunk.getUpdateCount());
+
+            setState(chunk.getUpdateCount(), chunk.getCurrentTime());
+            committed(updateCount, lastSyncTime);
+        }
+
+    }
+
+}
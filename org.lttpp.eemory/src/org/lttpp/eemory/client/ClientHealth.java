@@ -0,0 +1,74 @@
+package org.lttpp.eemory.client;
+
+import com.evernote.edam.error.EDAMErrorCode;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.transport.TTransportException;
+
+/**
+ * Passive liveness of the connection to Evernote, tracked from the outcome of
+ * the calls that are made anyway rather than by probing before every use.
+ *
+ * Every call, whether it reached Evernote or not, counts as a try. The owner
+ * only needs to probe when nothing has been tried for the idle timeout, so an
+ * unreachable Evernote is not probed over and over. A rejected authentication
+ * is remembered until a later call is accepted, it tells the owner the token
+ * has to be replaced.
+ */
+public class ClientHealth {
+
+    private final long idleTimeout;
+
+    private boolean authRejected = false;
+    private long lastTried = System.currentTimeMillis(); // last time a call was made
+
+    public ClientHealth(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Record a call that reached Evernote, whether or not it succeeded.
+     */
+    public synchronized void reached() {
+        authRejected = false;
+        lastTried = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a failed call, remembering if Evernote did not accept the
+     * authentication.
+     *
+     * @param e
+     *            the failure of the call
+     */
+    public synchronized void failed(final Throwable e) {
+        if (e instanceof TTransportException) {
+            lastTried = System.currentTimeMillis();
+        } else if (isAuthFailure(e)) {
+            authRejected = true;
+            lastTried = System.currentTimeMillis();
+        } else {
+            reached();
+        }
+    }
+
+    public synchronized boolean shouldProbe() {
+        return System.currentTimeMillis() - lastTried > idleTimeout;
+    }
+
+    /**
+     * Whether Evernote turned the authentication down, so the token has to be
+     * replaced, which no retry fixes.
+     */
+    public synchronized boolean isAuthRejected() {
+        return authRejected;
+    }
+
+    public static boolean isAuthFailure(final Throwable e) {
+        if (e instanceof EDAMUserException) {
+            EDAMErrorCode errorCode = ((EDAMUserException) e).getErrorCode();
+            return errorCode == EDAMErrorCode.AUTH_EXPIRED || errorCode == EDAMErrorCode.INVALID_AUTH;
+        }
+        return false;
+    }
+
+}
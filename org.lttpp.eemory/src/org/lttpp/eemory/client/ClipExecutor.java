@@ -0,0 +1,75 @@
+package org.lttpp.eemory.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.Messages;
+import org.lttpp.eemory.util.ThreadUtil;
+
+/**
+ * Runs clips in background, on a bounded pool of daemon threads shared by
+ * all clippers, so several clips are sent in parallel and a burst of clips
+ * cannot pile up without bound.
+ *
+ * Cancelling a running clip with interruption also aborts the call to
+ * Evernote it is waiting for, see {@link KeepAliveHttpClient#abort(Thread)}.
+ */
+public final class ClipExecutor {
+
+    private static final ExecutorService executor = ThreadUtil.newBoundedDaemonThreadPool(Constants.CLIP_THREAD_NAME, Constants.CLIP_THREADS, Constants.CLIP_QUEUE_CAPACITY);
+
+    /**
+     * Run the clip in background.
+     *
+     * @param clip
+     *            the clip to run
+     * @return the handle to wait for or cancel the clip
+     * @throws RejectedExecutionException
+     *             if too many clips are waiting already
+     */
+    public static <V> Future<V> submit(final Callable<V> clip) {
+        ClipTask<V> task = new ClipTask<V>(clip);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new RejectedExecutionException(Messages.Plugin_Error_TooManyClips, e);
+        }
+        return task;
+    }
+
+    private static class ClipTask<V> extends FutureTask<V> {
+
+        private volatile Thread runner;
+
+        public ClipTask(final Callable<V> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                runner = null;
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Thread thread = runner;
+            if (cancelled && mayInterruptIfRunning && thread != null) {
+                // a blocking read on a socket does not notice the interruption
+                KeepAliveHttpClient.abort(thread);
+            }
+            return cancelled;
+        }
+
+    }
+
+}
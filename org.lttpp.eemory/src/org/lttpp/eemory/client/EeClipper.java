@@ -2,6 +2,8 @@ package org.lttpp.eemory.client;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.lttpp.eemory.client.model.ENNote;
 import org.lttpp.eemory.client.model.ENObject;
@@ -14,12 +16,94 @@ public abstract class EeClipper {
 
     public abstract void clipSelection(ENNote args) throws Exception;
 
+    /**
+     * Clip the selections and files of several clips at once, each existing
+     * note is fetched and updated once for all the clips to it. The clips
+     * which fail do not stop the others, they are told by a
+     * {@link org.lttpp.eemory.exception.ClipBatchException}.
+     *
+     * @param args
+     *            the clips, a clip with attachments clips files, otherwise
+     *            the selection
+     */
+    public abstract void clipBatch(List<ENNote> args) throws Exception;
+
+    /**
+     * Clip the file(s) in background, see {@link ClipExecutor}.
+     *
+     * @return the handle to wait for the clip, or to cancel it
+     */
+    public Future<Void> clipFileAsync(final ENNote args) {
+        return ClipExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                clipFile(args);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Clip the selection in background, see {@link ClipExecutor}.
+     *
+     * @return the handle to wait for the clip, or to cancel it
+     */
+    public Future<Void> clipSelectionAsync(final ENNote args) {
+        return ClipExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                clipSelection(args);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Clip in batch in background, see {@link ClipExecutor}.
+     *
+     * @return the handle to wait for the clips, or to cancel them
+     */
+    public Future<Void> clipBatchAsync(final List<ENNote> args) {
+        return ClipExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                clipBatch(args);
+                return null;
+            }
+        });
+    }
+
     public abstract Map<String, ENObject> listNotebooks() throws Exception;
 
-    public abstract Map<String, ENNote> listNotesWithinNotebook(ENNote args) throws Exception;
+    public Map<String, ENNote> listNotesWithinNotebook(final ENNote args) throws Exception {
+        return listNotesWithinNotebook(args, null);
+    }
+
+    /**
+     * List the notes within the notebook, telling the listener of the notes
+     * as the pages of a long listing arrive, so they can be shown before the
+     * last page is in.
+     *
+     * @param listener
+     *            told of the notes on the calling thread, or null
+     */
+    public abstract Map<String, ENNote> listNotesWithinNotebook(ENNote args, NotesListener listener) throws Exception;
+
+    /**
+     * List the notes within the notebook a page at a time, see
+     * {@link NotePages}. The notes are not named, duplicate titles are left
+     * as they are.
+     */
+    public abstract NotePages pageNotesWithinNotebook(ENNote args) throws Exception;
+
+    public abstract Map<String, ENNote> findNotesWithinNotebook(ENNote args, int maxNotes) throws Exception;
 
     public abstract List<String> listTags() throws Exception;
 
+    /**
+     * Whether this clipper is still of use, otherwise it is to be replaced by
+     * a new one.
+     */
     public boolean isValid() {
         return valid;
     };
@@ -28,4 +112,12 @@ public abstract class EeClipper {
         valid = false;
     };
 
+    /**
+     * Drop the cached notebooks, notes and tags, so that they are listed from
+     * Evernote again next time.
+     */
+    public void invalidateMetadata() {
+
+    }
+
 }
@@ -1,12 +1,16 @@
 package org.lttpp.eemory.client;
 
-import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.Messages;
 import org.lttpp.eemory.client.impl.EeClipperImpl;
 import org.lttpp.eemory.client.impl.EeClipperNop;
 import org.lttpp.eemory.exception.OutOfDateException;
+import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.EvernoteUtil;
 import org.lttpp.eemory.util.LogUtil;
 import org.lttpp.eemory.util.MapUtil;
 
@@ -20,11 +24,12 @@ import com.evernote.thrift.TException;
  */
 public class EeClipperFactory {
 
-    private static EeClipperFactory instance;
+    private static volatile EeClipperFactory instance;
 
-    private EeClipper nopEeClipper;
+    private volatile EeClipper nopEeClipper;
 
-    private final Map<String, EeClipper> realEeClipperMap = MapUtil.map();
+    // <Brand:Token, Clipper of the account>
+    private final ConcurrentHashMap<String, ClipperHolder> realEeClippers = MapUtil.concurrentMap();
 
     private EeClipperFactory() {
 
@@ -65,34 +70,109 @@ public class EeClipperFactory {
         if (StringUtils.isBlank(token)) {
             return this.getEeClipper();
         } else {
-            EeClipper clipper = new EeClipperImpl(token);
-            realEeClipperMap.put(token, clipper);
-            return clipper;
+            return holder(token).create();
         }
     }
 
+    /**
+     * Return the <code>EECliper</code> of the account of the given token,
+     * which is created, or replaced if it is no longer valid, under the lock
+     * of the account only, so accounts never wait for each other. A clipper
+     * which cannot reach Evernote for now is kept, see
+     * {@link EeClipper#isValid()}, only a clipper whose authentication is
+     * rejected is replaced.
+     *
+     * @param token
+     *            used to auth
+     * @param newInstance
+     *            whether to replace the existing one anyway
+     * @return the EEClipper instance of the account
+     */
     public EeClipper getEeClipper(final String token, final boolean newInstance) throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
-        if (newInstance) {
+        if (newInstance || StringUtils.isBlank(token)) {
             return this.getEeClipper(token);
-        } else {
-            if (realEeClipperMap.get(token) == null) {
-                synchronized (realEeClipperMap) {
-                    if (realEeClipperMap.get(token) == null) {
-                        return this.getEeClipper(token);
+        }
+        return holder(token).get();
+    }
+
+    /*
+     * Accounts are told apart by brand as well, a token of one brand does not
+     * work with another.
+     */
+    private ClipperHolder holder(final String token) {
+        String key = EvernoteUtil.brand() + ConstantsUtil.COLON + token;
+        ClipperHolder holder = realEeClippers.get(key);
+        if (holder == null) {
+            ClipperHolder newHolder = new ClipperHolder(token);
+            holder = realEeClippers.putIfAbsent(key, newHolder);
+            if (holder == null) {
+                holder = newHolder;
+                evictLeastRecentlyUsed();
+            }
+        }
+        return holder;
+    }
+
+    /*
+     * Keep the clippers of at most CLIPPER_REGISTRY_SIZE accounts. An evicted
+     * clipper still works for whoever holds it, it is just not handed out
+     * again.
+     */
+    private void evictLeastRecentlyUsed() {
+        while (realEeClippers.size() > Constants.CLIPPER_REGISTRY_SIZE) {
+            Entry<String, ClipperHolder> eldest = null;
+            for (Entry<String, ClipperHolder> e : realEeClippers.entrySet()) {
+                if (eldest == null || e.getValue().lastUsed < eldest.getValue().lastUsed) {
+                    eldest = e;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            realEeClippers.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private static class ClipperHolder {
+
+        private final String token;
+        private volatile EeClipper clipper;
+        private volatile long lastUsed = System.nanoTime();
+
+        public ClipperHolder(final String token) {
+            this.token = token;
+        }
+
+        public EeClipper get() throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
+            lastUsed = System.nanoTime();
+            EeClipper current = clipper;
+            if (current == null) {
+                synchronized (this) {
+                    if (clipper == null) {
+                        clipper = new EeClipperImpl(token);
                     }
+                    return clipper;
                 }
             }
-            EeClipper clipper = realEeClipperMap.get(token);
-            if (!clipper.isValid()) {
-                synchronized (realEeClipperMap) {
-                    if (!clipper.isValid()) {
-                        clipper = getEeClipper(token);
+            if (!current.isValid()) {
+                synchronized (this) {
+                    // isValid() may probe Evernote, so do not ask again, just see if another thread has replaced it
+                    if (current == clipper) {
+                        clipper = new EeClipperImpl(token);
                         LogUtil.debug(Messages.bind(Messages.Plugin_Debug_NewClipper, token));
                     }
+                    return clipper;
                 }
             }
+            return current;
+        }
+
+        public synchronized EeClipper create() throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
+            lastUsed = System.nanoTime();
+            clipper = new EeClipperImpl(token);
             return clipper;
         }
+
     }
 
     /**
@@ -0,0 +1,70 @@
+package org.lttpp.eemory.client;
+
+import java.lang.reflect.Constructor;
+
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.EemoryPlugin;
+
+import com.evernote.auth.EvernoteAuth;
+import com.evernote.clients.ClientFactory;
+import com.evernote.clients.NoteStoreClient;
+import com.evernote.clients.UserStoreClient;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.TException;
+import com.evernote.thrift.protocol.TBinaryProtocol;
+import com.evernote.thrift.protocol.TProtocol;
+import com.evernote.thrift.transport.TTransportException;
+
+/**
+ * <code>ClientFactory</code> whose store clients talk through
+ * {@link KeepAliveHttpClient}, so the connections are reused across calls and
+ * the calls time out.
+ */
+public class KeepAliveClientFactory extends ClientFactory {
+
+    private final EvernoteAuth evernoteAuth;
+
+    public KeepAliveClientFactory(final EvernoteAuth evernoteAuth) {
+        super(evernoteAuth);
+        this.evernoteAuth = evernoteAuth;
+    }
+
+    @Override
+    public UserStoreClient createUserStoreClient() throws TTransportException {
+        return createStoreClient(UserStoreClient.class, evernoteAuth.getUserStoreUrl(), evernoteAuth.getToken());
+    }
+
+    @Override
+    public NoteStoreClient createNoteStoreClient() throws EDAMUserException, EDAMSystemException, TException {
+        synchronized (this) {
+            // looked up once, for all the clients of a pool
+            if (evernoteAuth.getNoteStoreUrl() == null) {
+                evernoteAuth.setNoteStoreUrl(createUserStoreClient().getNoteStoreUrl());
+            }
+        }
+        return createStoreClient(NoteStoreClient.class, evernoteAuth.getNoteStoreUrl(), evernoteAuth.getToken());
+    }
+
+    /*
+     * The SDK only constructs store clients inside its own package, so do what
+     * it does by reflection, with another transport.
+     */
+    private <T> T createStoreClient(final Class<T> type, final String url, final String token) throws TTransportException {
+        KeepAliveHttpClient transport = new KeepAliveHttpClient(url, Constants.THRIFT_CONNECT_TIMEOUT, Constants.THRIFT_READ_TIMEOUT);
+        transport.setHeader("User-Agent", userAgent());
+        TProtocol protocol = new TBinaryProtocol(transport);
+        try {
+            Constructor<T> constructor = type.getDeclaredConstructor(TProtocol.class, TProtocol.class, String.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(protocol, protocol, token);
+        } catch (Exception e) {
+            throw new TTransportException("Failed to create " + type.getName(), e);
+        }
+    }
+
+    private String userAgent() {
+        return EemoryPlugin.getName() + " / " + EemoryPlugin.getVersion() + "; Java / " + System.getProperty("java.version");
+    }
+
+}
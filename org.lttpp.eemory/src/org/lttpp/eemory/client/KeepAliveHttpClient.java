@@ -0,0 +1,214 @@
+package org.lttpp.eemory.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.lttpp.eemory.util.MapUtil;
+
+import com.evernote.thrift.transport.TTransport;
+import com.evernote.thrift.transport.TTransportException;
+
+/**
+ * HTTP transport of Thrift calls which lets the connections be reused.
+ *
+ * The SDK's <code>THttpClient</code> leaves the response stream of a call
+ * open until the next call replaces it, so the JDK never gets the connection
+ * back and every call pays a new TCP connection and TLS handshake. This
+ * transport reads each response completely and closes it right away, which
+ * hands the connection back to the JDK keep-alive cache, where the next call
+ * to the same host picks it up. The cache bounds the idle connections per
+ * host and evicts them once they have been idle for the keep-alive timeout.
+ *
+ * A call which fails before a connection is made, e.g. the host is unknown
+ * or cannot be connected to, fails with a <code>TTransportException</code>
+ * of type <code>NOT_OPEN</code>, as the call has certainly not reached
+ * Evernote.
+ */
+public class KeepAliveHttpClient extends TTransport {
+
+    private static final String CONTENT_TYPE = "application/x-thrift";
+    // TBinaryProtocol keeps them to itself
+    private static final int VERSION_MASK = 0xffff0000;
+    private static final int VERSION_1 = 0x80010000;
+    private static final int MESSAGE_HEADER_LENGTH = 8;
+    private static final String UNKNOWN_OPERATION = "unknown";
+
+    // <Thread, Connection of the call it is making>, so the call can be aborted from another thread
+    private static final ConcurrentHashMap<Thread, HttpURLConnection> callsInFlight = MapUtil.concurrentMap();
+
+    private final URL url;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Map<String, String> headers = MapUtil.orderedMap();
+
+    private final ByteArrayOutputStream requestBuffer = new ByteArrayOutputStream();
+    private InputStream responseBuffer;
+
+    public KeepAliveHttpClient(final String url, final int connectTimeout, final int readTimeout) throws TTransportException {
+        try {
+            this.url = new URL(url);
+        } catch (MalformedURLException e) {
+            throw new TTransportException(e);
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Abort the call the given thread is making, if any, which then fails
+     * with a <code>TTransportException</code>. A thread blocked reading a
+     * response is not woken up by an interruption alone.
+     *
+     * @param thread
+     *            the thread to abort the call of
+     */
+    public static void abort(final Thread thread) {
+        HttpURLConnection connection = callsInFlight.get(thread);
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    public void setHeader(final String name, final String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void open() {
+
+    }
+
+    @Override
+    public void close() {
+        responseBuffer = null;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, final int len) throws TTransportException {
+        if (responseBuffer == null) {
+            throw new TTransportException("Response buffer is empty, no request.");
+        }
+        try {
+            int ret = responseBuffer.read(buf, off, len);
+            if (ret == -1) {
+                throw new TTransportException("No more data available.");
+            }
+            return ret;
+        } catch (IOException e) {
+            throw new TTransportException(e);
+        }
+    }
+
+    @Override
+    public void write(final byte[] buf, final int off, final int len) {
+        requestBuffer.write(buf, off, len);
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        byte[] data = requestBuffer.toByteArray();
+        requestBuffer.reset();
+        responseBuffer = null;
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new TTransportException(new InterruptedIOException());
+        }
+
+        String operation = operation(data);
+        long start = System.nanoTime();
+        long received = 0;
+        String failure = null;
+        boolean connected = false;
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            callsInFlight.put(Thread.currentThread(), connection);
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setRequestProperty("Accept", CONTENT_TYPE);
+            for (Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(data.length);
+            connection.connect();
+            connected = true;
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(data);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                // consume the error body as well, so the connection can still be reused
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    try {
+                        IOUtils.skip(error, Long.MAX_VALUE);
+                    } finally {
+                        IOUtils.closeQuietly(error);
+                    }
+                }
+                failure = "HTTP " + responseCode;
+                throw new TTransportException("HTTP Response code: " + responseCode);
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                byte[] response = IOUtils.toByteArray(in);
+                received = response.length;
+                responseBuffer = new ByteArrayInputStream(response);
+            }
+        } catch (IOException e) {
+            failure = e.getClass().getSimpleName();
+            if (connection != null) {
+                // do not give a broken connection back to the cache
+                connection.disconnect();
+            }
+            // a call which failed to connect has not been sent, whatever went on later may have been processed
+            throw new TTransportException(connected ? TTransportException.UNKNOWN : TTransportException.NOT_OPEN, e);
+        } finally {
+            if (connection != null) {
+                callsInFlight.remove(Thread.currentThread(), connection);
+            }
+            StoreMetrics.called(operation, System.nanoTime() - start, data.length, received, failure);
+        }
+    }
+
+    /*
+     * The name of the operation, from the message header TBinaryProtocol
+     * writes first: version and message type, length of the name, the name.
+     */
+    private static String operation(final byte[] data) {
+        if (data.length < MESSAGE_HEADER_LENGTH) {
+            return UNKNOWN_OPERATION;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data);
+        int version = header.getInt();
+        int length = header.getInt();
+        if ((version & VERSION_MASK) != VERSION_1 || length < 0 || length > data.length - MESSAGE_HEADER_LENGTH) {
+            return UNKNOWN_OPERATION;
+        }
+        return new String(data, MESSAGE_HEADER_LENGTH, length, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.lttpp.eemory.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+import org.lttpp.eemory.util.ThreadUtil;
+
+/**
+ * In-memory cache of the account metadata, i.e. notebooks, tags and note
+ * titles, shared by everything that lists them through one
+ * <code>EeClipper</code>.
+ *
+ * An entry younger than the time-to-live is served as it is. An older entry
+ * is still served, while it is reloaded in background, so only the very first
+ * load of an entry waits for the network.
+ */
+public class MetadataCache {
+
+    public static final String NOTEBOOKS = "notebooks";
+    public static final String TAGS = "tags";
+    private static final String NOTES = "notes" + ConstantsUtil.COLON;
+
+    private static final ExecutorService refresher = ThreadUtil.newDaemonThreadPool(Constants.METADATA_REFRESH_THREAD_NAME, Constants.METADATA_REFRESH_THREADS);
+
+    private final long timeToLive;
+
+    private final ConcurrentHashMap<String, CacheEntry<?>> entries = MapUtil.concurrentMap();
+
+    public MetadataCache(final long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Return the cached value of the key, load it by the loader if it is not
+     * cached yet, or reload it in background if it is expired.
+     *
+     * @param key
+     *            the cache key, see {@link #NOTEBOOKS}, {@link #TAGS} and
+     *            {@link #notesKey(String, String)}
+     * @param loader
+     *            loads the value from Evernote
+     * @return the cached value
+     * @throws Exception
+     *             whatever the loader throws on the first load
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(final String key, final Callable<V> loader) throws Exception {
+        CacheEntry<V> entry = (CacheEntry<V>) entries.get(key);
+        if (entry == null) {
+            CacheEntry<V> newEntry = new CacheEntry<V>();
+            entry = (CacheEntry<V>) entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry.get(loader);
+    }
+
+    public static String notesKey(final String notebookGuid, final String name) {
+        return NOTES + StringUtils.defaultString(notebookGuid) + ConstantsUtil.COLON + StringUtils.defaultString(name);
+    }
+
+    public void invalidate(final String key) {
+        entries.remove(key);
+    }
+
+    public void invalidateNotes() {
+        for (String key : entries.keySet()) {
+            if (key.startsWith(NOTES)) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private class CacheEntry<V> {
+
+        private V value;
+        private long loadedTime;
+        private boolean loaded = false;
+        private boolean refreshing = false;
+
+        public synchronized V get(final Callable<V> loader) throws Exception {
+            if (!loaded) {
+                set(loader.call());
+            } else if (!refreshing && System.currentTimeMillis() - loadedTime > timeToLive) {
+                refreshing = true;
+                refresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            V v = loader.call();
+                            synchronized (CacheEntry.this) {
+                                set(v);
+                            }
+                        } catch (Throwable e) {
+                            // keep serving the expired value, next get will try again
+                            LogUtil.debug(e.toString());
+                        } finally {
+                            synchronized (CacheEntry.this) {
+                                refreshing = false;
+                            }
+                        }
+                    }
+                });
+            }
+            return value;
+        }
+
+        private void set(final V value) {
+            this.value = value;
+            loadedTime = System.currentTimeMillis();
+            loaded = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.lttpp.eemory.client;
+
+import java.util.Map;
+
+import org.lttpp.eemory.util.MapUtil;
+
+/**
+ * The content of the notes written lately, so that prepending to the same
+ * note again does not download its whole content again.
+ *
+ * The content of a note is kept along with the update sequence number the
+ * note got from the write, and is only served as long as the note still has
+ * that number, i.e. it has not been changed since, by this plug-in or
+ * anything else. The number of notes and the length of a cached content are
+ * bounded.
+ */
+public class NoteContentCache {
+
+    private final int maxLength;
+
+    // <Note Guid, Content>
+    private final Map<String, CachedContent> contents;
+
+    public NoteContentCache(final int maxSize, final int maxLength) {
+        this.maxLength = maxLength;
+        contents = MapUtil.lruMap(maxSize);
+    }
+
+    public synchronized boolean contains(final String guid) {
+        return contents.containsKey(guid);
+    }
+
+    /**
+     * @return the content of the note at the given update sequence number,
+     *         null if not cached.
+     */
+    public synchronized String get(final String guid, final int updateSequenceNum) {
+        CachedContent cached = contents.get(guid);
+        if (cached == null || cached.updateSequenceNum != updateSequenceNum) {
+            return null;
+        }
+        return cached.content;
+    }
+
+    public synchronized void put(final String guid, final int updateSequenceNum, final String content) {
+        if (content.length() > maxLength) {
+            contents.remove(guid);
+            return;
+        }
+        contents.put(guid, new CachedContent(updateSequenceNum, content));
+    }
+
+    private static class CachedContent {
+
+        private final int updateSequenceNum;
+        private final String content;
+
+        public CachedContent(final int updateSequenceNum, final String content) {
+            this.updateSequenceNum = updateSequenceNum;
+            this.content = content;
+        }
+
+    }
+
+}
@@ -1,35 +1,206 @@
 package org.lttpp.eemory.client;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.CharEncoding;
+import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.client.metadata.EDAMLimits;
 import org.lttpp.eemory.client.metadata.ENObjectType;
 import org.lttpp.eemory.client.model.ENNote;
+import org.lttpp.eemory.enml.ENML;
+import org.lttpp.eemory.exception.EDAMDataModel;
+import org.lttpp.eemory.util.ListUtil;
+import org.xml.sax.SAXException;
 
 import com.evernote.clients.NoteStoreClient;
 import com.evernote.edam.error.EDAMNotFoundException;
 import com.evernote.edam.error.EDAMSystemException;
 import com.evernote.edam.error.EDAMUserException;
 import com.evernote.edam.type.LinkedNotebook;
+import com.evernote.edam.type.Note;
+import com.evernote.edam.type.Resource;
 import com.evernote.thrift.TException;
 
-
+/**
+ * Clips in two steps: {@link #prepare(ENNote)} builds everything to send
+ * without reaching Evernote, {@link #send(PreparedClip)} sends it.
+ */
 public abstract class NoteOps {
 
+    private static final NoteContentCache contentCache = new NoteContentCache(Constants.NOTE_CONTENT_CACHE_SIZE, Constants.NOTE_CONTENT_CACHE_MAX_LENGTH);
+
     private final StoreClientFactory factory;
 
     public NoteOps(final StoreClientFactory factory) {
         this.factory = factory;
     }
 
-    public abstract void updateOrCreate(ENNote args) throws Exception;
+    public abstract PreparedClip prepare(ENNote args) throws Exception;
 
-    protected NoteStoreClient getNoteStoreClient(final ENNote args) throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
-        NoteStoreClient client;
-        if (args.getNotebook().getType() == ENObjectType.LINKED) {
-            // args.getNotebook().getLinkedObject() should NOT be null
-            client = factory.getLinkedNoteStoreClient((LinkedNotebook) args.getNotebook().getLinkedObject());
+    /**
+     * A clip to the note of the given args, with its title, notebook and tags
+     * set, and nothing yet to add.
+     */
+    protected PreparedClip newClip(final ENNote args) {
+        Note note = new Note();
+        if (StringUtils.isNotBlank(args.getGuid())) {
+            note.setGuid(args.getGuid());
         } else {
-            client = factory.getNoteStoreClient();
+            note.setTitle(StringUtils.abbreviate(args.getName(), EDAMLimits.EDAM_NOTE_TITLE_LEN_MAX));
+            if (StringUtils.isNotBlank(args.getNotebook().getGuid())) {
+                note.setNotebookGuid(args.getNotebook().getGuid());
+            }
+        }
+
+        for (String tagName : args.getTags()) {
+            tagName = tagName.trim();
+            if (StringUtils.isNotBlank(tagName)) {
+                note.addToTagNames(tagName);
+            }
+        }
+
+        // args.getNotebook().getLinkedObject() should NOT be null if linked
+        LinkedNotebook linkedNotebook = args.getNotebook().getType() == ENObjectType.LINKED ? (LinkedNotebook) args.getNotebook().getLinkedObject() : null;
+        return new PreparedClip(note, linkedNotebook);
+    }
+
+    public void send(final PreparedClip clip) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException {
+        send(ListUtil.list(clip));
+    }
+
+    /**
+     * Send the given clips at once, which are either all to the same
+     * existing note, or a single new note. The existing note is fetched and
+     * updated once for all of the clips, which are prepended in the given
+     * order, so the last one ends up on top, as if sent one by one.
+     *
+     * @param clips
+     *            the clips to send
+     */
+    public void send(final List<PreparedClip> clips) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException {
+        try {
+            sendOnce(clips);
+        } catch (EDAMUserException e) {
+            if (!factory.evictIfAuthExpired(clips.get(0).getLinkedNotebook(), e)) {
+                throw e;
+            }
+            sendOnce(clips);
+        }
+    }
+
+    private void sendOnce(final List<PreparedClip> clips) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException {
+        PreparedClip first = clips.get(0);
+        if (first.isUpdate()) {
+            List<Note> clipped = ListUtil.list();
+            for (PreparedClip clip : clips) {
+                clipped.add(clip.getNote());
+            }
+            update(first.getLinkedNotebook(), clipped);
+        } else {
+            create(first.getLinkedNotebook(), first.getNote());
+        }
+    }
+
+    private void create(final LinkedNotebook linkedNotebook, final Note note) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        factory.execute(linkedNotebook, new NoteStoreCall<Note>() {
+            @Override
+            public Note call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.createNote(note);
+            }
+
+            @Override
+            public boolean isIdempotent() {
+                // sent twice, it would create the note twice
+                return false;
+            }
+        });
+    }
+
+    private void update(final LinkedNotebook linkedNotebook, final List<Note> clipped) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException {
+        final String guid = clipped.get(0).getGuid();
+        final Note note = getNote(linkedNotebook, guid);
+        if (!note.isActive()) {
+            EDAMNotFoundException e = new EDAMNotFoundException();
+            e.setIdentifier(EDAMDataModel.Note_noteGuid.toString());
+            e.setKey(guid);
+            throw e;
+        }
+
+        // update content, the latest clip on top
+        ENML enml = new ENML(note.getContent());
+        for (int i = clipped.size() - 1; i >= 0; i--) {
+            enml.addNoteContent(clipped.get(i).getContent());
+        }
+        note.setContent(enml.get());
+
+        boolean resourcesAdded = false;
+        for (Note c : clipped) {
+            // update resources
+            if (c.isSetResources()) {
+                for (Resource resource : c.getResources()) {
+                    note.addToResources(resource);
+                }
+                resourcesAdded = true;
+            }
+            // update tags
+            if (c.isSetTagNames()) {
+                for (String tagName : c.getTagNames()) {
+                    if (!note.isSetTagNames() || !note.getTagNames().contains(tagName)) {
+                        note.addToTagNames(tagName);
+                    }
+                }
+            }
+        }
+        if (!resourcesAdded) {
+            // the existing ones are left as they are
+            note.unsetResources();
+        }
+
+        note.setUpdated(System.currentTimeMillis());
+
+        Note updated = factory.execute(linkedNotebook, new NoteStoreCall<Note>() {
+            @Override
+            public Note call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.updateNote(note);
+            }
+        });
+        // only if the server kept the content as it is
+        if (Arrays.equals(updated.getContentHash(), DigestUtils.md5(note.getContent().getBytes(CharEncoding.UTF_8)))) {
+            contentCache.put(guid, updated.getUpdateSequenceNum(), note.getContent());
+        }
+    }
+
+    /*
+     * The note with its content. If the note was written here lately, only
+     * its metadata is fetched, to see whether the content written is still
+     * the content of the note.
+     */
+    private Note getNote(final LinkedNotebook linkedNotebook, final String guid) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        if (contentCache.contains(guid)) {
+            Note note = factory.execute(linkedNotebook, new NoteStoreCall<Note>() {
+                @Override
+                public Note call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                    return client.getNote(guid, false, false, false, false);
+                }
+            });
+            String content = contentCache.get(guid, note.getUpdateSequenceNum());
+            if (content != null) {
+                note.setContent(content);
+                return note;
+            }
         }
-        return client;
+        return factory.execute(linkedNotebook, new NoteStoreCall<Note>() {
+            @Override
+            public Note call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.getNote(guid, true, false, false, false);
+            }
+        });
     }
 
 }
@@ -0,0 +1,20 @@
+package org.lttpp.eemory.client;
+
+import java.util.List;
+
+import org.lttpp.eemory.client.model.ENNote;
+
+/**
+ * The notes of a listing, fetched a page at a time as they are asked for,
+ * so a caller looking for a note can stop before the last page, and only
+ * a page of notes is held at a time.
+ */
+public interface NotePages {
+
+    /**
+     * @return the notes of the next page, empty once all the notes are
+     *         listed
+     */
+    List<ENNote> next() throws Exception;
+
+}
@@ -0,0 +1,29 @@
+package org.lttpp.eemory.client;
+
+import com.evernote.clients.NoteStoreClient;
+import com.evernote.edam.error.EDAMNotFoundException;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.TException;
+
+/**
+ * A call to the note store, made with a client checked out of the pool of
+ * the shard for the call only, see
+ * {@link StoreClientFactory#execute(com.evernote.edam.type.LinkedNotebook, NoteStoreCall)}.
+ * The client must not be kept beyond the call.
+ *
+ * @param <T>
+ *            the result of the call
+ */
+public abstract class NoteStoreCall<T> {
+
+    public abstract T call(NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException;
+
+    /**
+     * See {@link StoreCall#isIdempotent()}.
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
+}
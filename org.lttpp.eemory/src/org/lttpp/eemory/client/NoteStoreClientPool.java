@@ -0,0 +1,57 @@
+package org.lttpp.eemory.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.evernote.clients.ClientFactory;
+import com.evernote.clients.NoteStoreClient;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.TException;
+
+/**
+ * NoteStore clients of a shard, each checked out by one call at a time and
+ * returned after it, as a client must not be shared by concurrent calls.
+ *
+ * A call never waits for a client, a new one is created if none is idle.
+ * At most the given number of idle clients are kept, the others are dropped
+ * on return, and so are the clients returned after the pool was closed.
+ */
+public class NoteStoreClientPool {
+
+    private final ClientFactory factory;
+    private final int maxIdle;
+
+    private final Deque<NoteStoreClient> idle = new ArrayDeque<NoteStoreClient>(); // guarded by this
+    private boolean closed; // guarded by this
+
+    public NoteStoreClientPool(final ClientFactory factory, final int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    public NoteStoreClient checkOut() throws EDAMUserException, EDAMSystemException, TException {
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        return factory.createNoteStoreClient();
+    }
+
+    public synchronized void checkIn(final NoteStoreClient client) {
+        if (!closed && idle.size() < maxIdle) {
+            idle.push(client);
+        }
+    }
+
+    /**
+     * Drop the idle clients, and the checked out ones as they are returned,
+     * e.g. once their authentication has expired.
+     */
+    public synchronized void close() {
+        closed = true;
+        idle.clear();
+    }
+
+}
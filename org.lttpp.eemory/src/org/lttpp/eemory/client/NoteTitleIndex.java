@@ -0,0 +1,571 @@
+package org.lttpp.eemory.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.EemoryPlugin;
+import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+
+import com.evernote.edam.notestore.NoteMetadata;
+
+/**
+ * On-disk index of note titles under the plug-in state location, so that
+ * the titles synchronized by {@link AccountSync} survive restarts.
+ *
+ * Every notebook has a file with its notes sorted by title, which is
+ * memory-mapped the first time the notebook's notes are asked for. Changes
+ * reported by sync are kept in a journal, written along with the update count
+ * they bring the index to, and merged into the notebook files once the
+ * journal grows.
+ *
+ * Not thread-safe, it is guarded by {@link AccountSync}, and there must be a
+ * single index per folder, as the index deletes the files it no longer uses.
+ */
+public class NoteTitleIndex {
+
+    private static final int MAGIC = 0x45454958; // EEIX
+    private static final int VERSION = 1;
+
+    private static final Comparator<NoteMetadata> TITLE_ORDER = new Comparator<NoteMetadata>() {
+        @Override
+        public int compare(final NoteMetadata one, final NoteMetadata other) {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(one.getTitle(), other.getTitle());
+            return c != 0 ? c : one.getGuid().compareTo(other.getGuid());
+        }
+    };
+
+    private final File folder;
+
+    private boolean loaded = false;
+    private int updateCount = 0;
+    private long lastSyncTime = 0;
+    // notebook files older than minGeneration are left over from before a full sync
+    private int generation = 0;
+    private int minGeneration = 0;
+
+    // <Note Guid, Note>, a null note is one no longer in any notebook
+    private final Map<String, NoteMetadata> journal = MapUtil.orderedMap();
+    // <Notebook Guid, Mapped File>
+    private final Map<String, NotebookFile> notebookFiles = MapUtil.map();
+
+    public NoteTitleIndex(final File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * The index of the given account, only to be asked for by
+     * {@link AccountSync#forAccount}, which keeps it.
+     */
+    static NoteTitleIndex forAccount(final String account) {
+        File root = new File(EemoryPlugin.getDefault().getStateLocation().toFile(), Constants.NOTE_INDEX_FOLDER);
+        return new NoteTitleIndex(new File(root, account));
+    }
+
+    public int getUpdateCount() throws IOException {
+        load();
+        return updateCount;
+    }
+
+    public long getLastSyncTime() throws IOException {
+        load();
+        return lastSyncTime;
+    }
+
+    public void put(final NoteMetadata note) throws IOException {
+        load();
+        journal.put(note.getGuid(), note);
+    }
+
+    public void remove(final String guid) throws IOException {
+        load();
+        journal.put(guid, null);
+    }
+
+    /**
+     * Record that the index is synchronized up to the given update count.
+     */
+    public void commit(final int updateCount, final long lastSyncTime) throws IOException {
+        load();
+        this.updateCount = updateCount;
+        this.lastSyncTime = lastSyncTime;
+        if (journal.size() > Constants.NOTE_INDEX_JOURNAL_MAX) {
+            compact();
+        } else {
+            writeState();
+        }
+    }
+
+    /**
+     * Forget all notes, e.g. before a full sync.
+     */
+    public void clear() {
+        journal.clear();
+        notebookFiles.clear();
+        updateCount = 0;
+        lastSyncTime = 0;
+        minGeneration = ++generation;
+        loaded = true;
+        try {
+            writeState();
+        } catch (IOException e) {
+            LogUtil.logWarning(e);
+        }
+        deleteObsoleteFiles();
+    }
+
+    /**
+     * Return the notes in the given notebook, or all notes if the notebook
+     * guid is blank, in title order.
+     */
+    public List<NoteMetadata> getNotes(final String notebookGuid) throws IOException {
+        return getNotes(notebookGuid, StringUtils.EMPTY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return at most maxNotes notes in the given notebook, or in all
+     * notebooks if the notebook guid is blank, whose title starts with the
+     * given prefix, ignoring case, in title order.
+     *
+     * The notebook files are sorted already, so they are merged with the
+     * sorted journal rather than sorted again, the first title with the
+     * prefix is found by a binary search over the entry offsets, and only
+     * the notes returned are read.
+     */
+    public List<NoteMetadata> getNotes(final String notebookGuid, final String titlePrefix, final int maxNotes) throws IOException {
+        load();
+        List<String> notebookGuids = StringUtils.isBlank(notebookGuid) ? listNotebookGuids() : ListUtil.list(notebookGuid);
+
+        List<NoteMetadata> changed = ListUtil.list();
+        for (NoteMetadata n : journal.values()) {
+            if (n != null && (StringUtils.isBlank(notebookGuid) || notebookGuid.equals(n.getNotebookGuid())) && StringUtils.startsWithIgnoreCase(n.getTitle(), titlePrefix)) {
+                changed.add(n);
+            }
+        }
+        Collections.sort(changed, TITLE_ORDER);
+
+        PriorityQueue<NoteCursor> cursors = new PriorityQueue<NoteCursor>(notebookGuids.size() + 1);
+        new NoteCursor(changed.iterator()).offerTo(cursors);
+        for (String guid : notebookGuids) {
+            NotebookFile file = getNotebookFile(guid);
+            if (file != null) {
+                new NoteCursor(new NotebookFileIterator(file, guid, titlePrefix)).offerTo(cursors);
+            }
+        }
+
+        List<NoteMetadata> notes = ListUtil.list();
+        while (notes.size() < maxNotes && !cursors.isEmpty()) {
+            NoteCursor cursor = cursors.poll();
+            notes.add(cursor.head());
+            cursor.offerTo(cursors);
+        }
+        return notes;
+    }
+
+    /*
+     * Merge the journal into the notebook files. A changed note may have been
+     * moved from any notebook, so every notebook file is checked.
+     */
+    private void compact() throws IOException {
+        Set<String> changed = new HashSet<String>();
+        for (NoteMetadata n : journal.values()) {
+            if (n != null) {
+                changed.add(n.getNotebookGuid());
+            }
+        }
+        for (String notebookGuid : listNotebookGuids()) {
+            NotebookFile file = getNotebookFile(notebookGuid);
+            for (int i = 0; i < file.size(); i++) {
+                if (journal.containsKey(file.guidAt(i))) {
+                    changed.add(notebookGuid);
+                    break;
+                }
+            }
+        }
+
+        int newGeneration = generation + 1;
+        for (String notebookGuid : changed) {
+            writeNotebook(notebookGuid, newGeneration, getNotes(notebookGuid));
+        }
+
+        generation = newGeneration;
+        journal.clear();
+        notebookFiles.clear();
+        writeState();
+        deleteObsoleteFiles();
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File state = new File(folder, Constants.NOTE_INDEX_STATE);
+        if (!state.isFile()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(state));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(state.getAbsolutePath());
+            }
+            updateCount = in.readInt();
+            lastSyncTime = in.readLong();
+            generation = in.readInt();
+            minGeneration = in.readInt();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String guid = in.readUTF();
+                if (in.readBoolean()) {
+                    NoteMetadata n = new NoteMetadata(guid);
+                    n.setNotebookGuid(in.readUTF());
+                    n.setTitle(in.readUTF());
+                    n.setUpdateSequenceNum(in.readInt());
+                    journal.put(guid, n);
+                } else {
+                    journal.put(guid, null);
+                }
+            }
+        } catch (IOException e) {
+            // start over from a full sync
+            clear();
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeState() throws IOException {
+        FileUtils.forceMkdir(folder);
+        File tmp = new File(folder, Constants.NOTE_INDEX_STATE + Constants.NOTE_INDEX_TMP_EXTENSION);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(updateCount);
+            out.writeLong(lastSyncTime);
+            out.writeInt(generation);
+            out.writeInt(minGeneration);
+            out.writeInt(journal.size());
+            for (Entry<String, NoteMetadata> e : journal.entrySet()) {
+                out.writeUTF(e.getKey());
+                NoteMetadata n = e.getValue();
+                out.writeBoolean(n != null);
+                if (n != null) {
+                    out.writeUTF(n.getNotebookGuid());
+                    out.writeUTF(n.getTitle());
+                    out.writeInt(n.getUpdateSequenceNum());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(folder, Constants.NOTE_INDEX_STATE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Layout: magic, version, count, count offsets of the entries, then the
+     * entries, each is title, guid and update sequence number.
+     */
+    private void writeNotebook(final String notebookGuid, final int generation, final List<NoteMetadata> notes) throws IOException {
+        FileUtils.forceMkdir(folder);
+        byte[][] titles = new byte[notes.size()][];
+        byte[][] guids = new byte[notes.size()][];
+        int offset = 12 + 4 * notes.size();
+        int[] offsets = new int[notes.size()];
+        for (int i = 0; i < notes.size(); i++) {
+            titles[i] = notes.get(i).getTitle().getBytes(StandardCharsets.UTF_8);
+            guids[i] = notes.get(i).getGuid().getBytes(StandardCharsets.UTF_8);
+            offsets[i] = offset;
+            offset += 2 + titles[i].length + 2 + guids[i].length + 4;
+        }
+
+        File tmp = new File(folder, notebookGuid + Constants.NOTE_INDEX_TMP_EXTENSION);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(notes.size());
+            for (int o : offsets) {
+                out.writeInt(o);
+            }
+            for (int i = 0; i < notes.size(); i++) {
+                out.writeShort(titles[i].length);
+                out.write(titles[i]);
+                out.writeShort(guids[i].length);
+                out.write(guids[i]);
+                out.writeInt(notes.get(i).getUpdateSequenceNum());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), notebookFile(notebookGuid, generation).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File notebookFile(final String notebookGuid, final int generation) {
+        return new File(folder, notebookGuid + ConstantsUtil.DOT + generation + Constants.NOTE_INDEX_EXTENSION);
+    }
+
+    private NotebookFile getNotebookFile(final String notebookGuid) throws IOException {
+        NotebookFile file = notebookFiles.get(notebookGuid);
+        if (file == null) {
+            Integer latest = latestGenerations().get(notebookGuid);
+            if (latest == null) {
+                return null;
+            }
+            file = new NotebookFile(notebookFile(notebookGuid, latest));
+            notebookFiles.put(notebookGuid, file);
+        }
+        return file;
+    }
+
+    private List<String> listNotebookGuids() {
+        return ListUtil.toList(latestGenerations().keySet());
+    }
+
+    /*
+     * <Notebook Guid, Latest Generation>
+     */
+    private Map<String, Integer> latestGenerations() {
+        Map<String, Integer> latest = MapUtil.map();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return latest;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(Constants.NOTE_INDEX_EXTENSION)) {
+                continue;
+            }
+            name = StringUtils.removeEnd(name, Constants.NOTE_INDEX_EXTENSION);
+            String notebookGuid = StringUtils.substringBeforeLast(name, ConstantsUtil.DOT);
+            int gen;
+            try {
+                gen = Integer.parseInt(StringUtils.substringAfterLast(name, ConstantsUtil.DOT));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (gen >= minGeneration && gen <= generation && (!latest.containsKey(notebookGuid) || latest.get(notebookGuid) < gen)) {
+                latest.put(notebookGuid, gen);
+            }
+        }
+        return latest;
+    }
+
+    /*
+     * Best effort, a file still mapped can not be deleted on some platforms,
+     * it will be deleted next time.
+     */
+    private void deleteObsoleteFiles() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Map<String, Integer> latest = latestGenerations();
+        for (File f : files) {
+            String name = StringUtils.removeEnd(f.getName(), Constants.NOTE_INDEX_EXTENSION);
+            if (name.equals(f.getName())) {
+                continue;
+            }
+            String notebookGuid = StringUtils.substringBeforeLast(name, ConstantsUtil.DOT);
+            if (!f.equals(latest.containsKey(notebookGuid) ? notebookFile(notebookGuid, latest.get(notebookGuid)) : null)) {
+                f.delete();
+            }
+        }
+    }
+
+    /*
+     * The next note of a source of notes in title order, the sources are
+     * merged by taking the cursor of the least note first.
+     */
+    private static class NoteCursor implements Comparable<NoteCursor> {
+
+        private final Iterator<NoteMetadata> notes;
+        private NoteMetadata head;
+
+        public NoteCursor(final Iterator<NoteMetadata> notes) {
+            this.notes = notes;
+        }
+
+        /*
+         * Move on to the next note, and put the cursor back in the queue if
+         * there is one.
+         */
+        public void offerTo(final PriorityQueue<NoteCursor> cursors) {
+            if (notes.hasNext()) {
+                head = notes.next();
+                cursors.offer(this);
+            }
+        }
+
+        public NoteMetadata head() {
+            return head;
+        }
+
+        @Override
+        public int compareTo(final NoteCursor other) {
+            return TITLE_ORDER.compare(head, other.head);
+        }
+
+    }
+
+    /*
+     * Notes of a notebook file from the first title with the prefix on, as
+     * long as the titles have it, but those changed since.
+     */
+    private class NotebookFileIterator implements Iterator<NoteMetadata> {
+
+        private final NotebookFile file;
+        private final String notebookGuid;
+        private final String titlePrefix;
+        private int index;
+        private NoteMetadata next;
+
+        public NotebookFileIterator(final NotebookFile file, final String notebookGuid, final String titlePrefix) {
+            this.file = file;
+            this.notebookGuid = notebookGuid;
+            this.titlePrefix = titlePrefix;
+            index = file.find(titlePrefix);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && index < file.size()) {
+                NoteMetadata n = file.get(index++, notebookGuid);
+                if (!StringUtils.startsWithIgnoreCase(n.getTitle(), titlePrefix)) {
+                    index = file.size();
+                } else if (!journal.containsKey(n.getGuid())) {
+                    next = n;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public NoteMetadata next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            NoteMetadata n = next;
+            advance();
+            return n;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static class NotebookFile {
+
+        private final ByteBuffer buffer;
+        private final int size;
+
+        public NotebookFile(final File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                buffer = mapped;
+            } finally {
+                // the mapping stays valid after the channel is closed
+                raf.close();
+            }
+            if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file.getAbsolutePath());
+            }
+            size = buffer.getInt(8);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /*
+         * The index of the first entry whose title is not less than the
+         * given one, ignoring case, the entries are in title order.
+         */
+        public int find(final String title) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (String.CASE_INSENSITIVE_ORDER.compare(string(offset(middle)), title) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        public String guidAt(final int index) {
+            int o = offset(index);
+            return string(o + 2 + length(o));
+        }
+
+        public NoteMetadata get(final int index, final String notebookGuid) {
+            int o = offset(index);
+            String title = string(o);
+            o += 2 + length(o);
+            NoteMetadata n = new NoteMetadata(string(o));
+            o += 2 + length(o);
+            n.setTitle(title);
+            n.setNotebookGuid(notebookGuid);
+            n.setUpdateSequenceNum(buffer.getInt(o));
+            return n;
+        }
+
+        private int offset(final int index) {
+            return buffer.getInt(12 + 4 * index);
+        }
+
+        private int length(final int offset) {
+            return buffer.getShort(offset) & 0xFFFF;
+        }
+
+        private String string(final int offset) {
+            byte[] bytes = new byte[length(offset)];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + 2);
+            b.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
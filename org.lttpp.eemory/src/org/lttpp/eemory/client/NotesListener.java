@@ -0,0 +1,19 @@
+package org.lttpp.eemory.client;
+
+import java.util.Map;
+
+import org.lttpp.eemory.client.model.ENNote;
+
+/**
+ * Told of the notes of a listing as its pages arrive, before the listing
+ * returns.
+ */
+public interface NotesListener {
+
+    /**
+     * @param notes
+     *            the notes just arrived, named as they are in the listing
+     */
+    void notesFound(Map<String, ENNote> notes);
+
+}
@@ -0,0 +1,314 @@
+package org.lttpp.eemory.client;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.EemoryPlugin;
+import org.lttpp.eemory.Messages;
+import org.lttpp.eemory.util.EclipseUtil;
+import org.lttpp.eemory.util.EvernoteUtil;
+import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+import org.lttpp.eemory.util.ThreadUtil;
+
+import com.evernote.edam.error.EDAMErrorCode;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.thrift.transport.TTransportException;
+
+/**
+ * Clips of an account which could not be sent to Evernote for now, kept under
+ * the plug-in state location until they are sent, in the order they were
+ * clipped.
+ *
+ * A clip is queued here when sending it fails to connect to Evernote or hits
+ * a rate limit, so nothing clipped is lost while offline, and a background
+ * drainer sends the queued clips once Evernote can be reached again. Clips
+ * sent later are queued behind the others, so they arrive in order. The
+ * outbox holds at most {@link Constants#OUTBOX_MAX_CLIPS} clips of
+ * {@link Constants#OUTBOX_MAX_SIZE} bytes, the oldest clips are dropped to
+ * make room for new ones.
+ *
+ * A queued clip which Evernote turns down is set aside in the outbox for the
+ * user to find, at most {@link Constants#OUTBOX_MAX_FAILED_CLIPS} of them for
+ * at most {@link Constants#OUTBOX_FAILED_MAX_AGE}. Set-aside clips count
+ * toward the size of the outbox, and are the first to go to make room. The
+ * user is told of every clip dropped or set aside.
+ */
+public class Outbox {
+
+    /**
+     * Sends a queued clip, the latest clipper of the account.
+     */
+    public interface Sender {
+
+        void send(PreparedClip clip) throws Exception;
+
+    }
+
+    private static final ScheduledExecutorService drainer = ThreadUtil.newDaemonScheduler(Constants.OUTBOX_THREAD_NAME);
+
+    // <Account, Outbox>, clippers of an account come and go, its outbox stays
+    private static final ConcurrentHashMap<String, Outbox> outboxes = MapUtil.concurrentMap();
+
+    private static final FileFilter CLIPS = new FileFilter() {
+        @Override
+        public boolean accept(final File file) {
+            return file.isFile() && file.getName().endsWith(Constants.OUTBOX_CLIP_EXTENSION);
+        }
+    };
+
+    private static final FileFilter FAILED_CLIPS = new FileFilter() {
+        @Override
+        public boolean accept(final File file) {
+            return file.isFile() && file.getName().endsWith(Constants.OUTBOX_CLIP_EXTENSION + Constants.OUTBOX_FAILED_EXTENSION);
+        }
+    };
+
+    private final File folder;
+
+    private long sequence; // guarded by this
+    private volatile Sender sender;
+    private boolean drainScheduled; // guarded by this
+
+    public Outbox(final File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * The outbox of the account the token belongs to, see
+     * {@link EvernoteUtil#account(String)}, so the clips queued with an
+     * earlier token of the user are sent with the current one.
+     */
+    public static Outbox forAccount(final String token) {
+        String account = EvernoteUtil.account(token);
+        Outbox outbox = outboxes.get(account);
+        if (outbox == null) {
+            File root = new File(EemoryPlugin.getDefault().getStateLocation().toFile(), Constants.OUTBOX_FOLDER);
+            Outbox newOutbox = new Outbox(new File(root, account));
+            outbox = outboxes.putIfAbsent(account, newOutbox);
+            if (outbox == null) {
+                outbox = newOutbox;
+            }
+        }
+        return outbox;
+    }
+
+    /**
+     * Whether a failed clip is worth queuing, i.e. it certainly has not
+     * reached Evernote, and may go through as it is later. A clip which
+     * failed once it was on the way, e.g. with a read timeout, may have been
+     * created or updated already, and would be duplicated if sent again. A
+     * clip cancelled by interrupting its thread is not queued either.
+     */
+    public static boolean shouldQueue(final Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof TTransportException) {
+            return ((TTransportException) e).getType() == TTransportException.NOT_OPEN;
+        }
+        return e instanceof EDAMSystemException && ((EDAMSystemException) e).getErrorCode() == EDAMErrorCode.RATE_LIMIT_REACHED;
+    }
+
+    public synchronized boolean isEmpty() {
+        return clips().isEmpty();
+    }
+
+    /**
+     * Queue the clip, making room for it if the outbox is full.
+     *
+     * @throws IOException
+     *             if the clip could not be kept, e.g. it is larger than the
+     *             outbox
+     */
+    public synchronized void add(final PreparedClip clip) throws IOException {
+        byte[] bytes = SerializationUtils.serialize(clip);
+        if (bytes.length > Constants.OUTBOX_MAX_SIZE) {
+            throw new IOException(Messages.bind(Messages.Plugin_Error_ClipTooLarge, title(clip)));
+        }
+
+        List<File> failed = list(FAILED_CLIPS);
+        List<File> clips = clips();
+        long size = bytes.length;
+        for (File file : failed) {
+            size += file.length();
+        }
+        for (File file : clips) {
+            size += file.length();
+        }
+        // set-aside clips are only kept for the user to find, so they go first
+        while (!failed.isEmpty() && size > Constants.OUTBOX_MAX_SIZE) {
+            File oldest = failed.remove(0);
+            size -= oldest.length();
+            FileUtils.deleteQuietly(oldest);
+        }
+        while (!clips.isEmpty() && (clips.size() >= Constants.OUTBOX_MAX_CLIPS || size > Constants.OUTBOX_MAX_SIZE)) {
+            File oldest = clips.remove(0);
+            size -= oldest.length();
+            EclipseUtil.showStatus(LogUtil.warning(Messages.bind(Messages.Plugin_Error_ClipDropped, title(read(oldest)))));
+            FileUtils.deleteQuietly(oldest);
+        }
+
+        FileUtils.forceMkdir(folder);
+        File file = new File(folder, nextName(clips));
+        File tmp = new File(folder, file.getName() + Constants.OUTBOX_TMP_EXTENSION);
+        FileUtils.writeByteArrayToFile(tmp, bytes);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Send the queued clips in background with the given sender, after the
+     * given delay.
+     */
+    public synchronized void drainLater(final Sender sender, final long delay) {
+        this.sender = sender;
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        drainer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Outbox.this) {
+                    drainScheduled = false;
+                }
+                long retryDelay = drain();
+                if (retryDelay >= 0) {
+                    drainLater(Outbox.this.sender, retryDelay);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Send the queued clips in order, a clip which can never be sent is set
+     * aside. Only called by the drainer.
+     *
+     * Return the delay to try again after, -1 if the outbox is empty.
+     */
+    private long drain() {
+        while (true) {
+            File file;
+            synchronized (this) {
+                List<File> clips = clips();
+                if (clips.isEmpty()) {
+                    return -1;
+                }
+                file = clips.get(0);
+            }
+
+            PreparedClip clip = read(file);
+            if (clip != null) {
+                try {
+                    sender.send(clip);
+                } catch (Throwable e) {
+                    if (shouldQueue(e)) {
+                        return retryDelay(e);
+                    }
+                    File failed = setAside(file);
+                    EclipseUtil.showStatus(LogUtil.warning(Messages.bind(Messages.Plugin_Error_ClipNotSent, title(clip), failed != null ? failed.getAbsolutePath() : StringUtils.EMPTY), e));
+                    continue;
+                }
+            }
+            synchronized (this) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private long retryDelay(final Throwable e) {
+        if (e instanceof EDAMSystemException && ((EDAMSystemException) e).isSetRateLimitDuration()) {
+            return Math.max(Constants.OUTBOX_RETRY_DELAY, ((EDAMSystemException) e).getRateLimitDuration() * 1000L);
+        }
+        return Constants.OUTBOX_RETRY_DELAY;
+    }
+
+    /*
+     * Keep what could not be sent, for the user to find, along with the most
+     * recent of the clips set aside before. Return the file it is kept in,
+     * null if it could not be kept.
+     */
+    private synchronized File setAside(final File file) {
+        File failed = new File(folder, file.getName() + Constants.OUTBOX_FAILED_EXTENSION);
+        if (!file.renameTo(failed)) {
+            FileUtils.deleteQuietly(file);
+            failed = null;
+        }
+        List<File> kept = list(FAILED_CLIPS);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < kept.size(); i++) {
+            File f = kept.get(i);
+            if (kept.size() - i > Constants.OUTBOX_MAX_FAILED_CLIPS || now - f.lastModified() > Constants.OUTBOX_FAILED_MAX_AGE) {
+                FileUtils.deleteQuietly(f);
+            }
+        }
+        return failed != null && failed.exists() ? failed : null;
+    }
+
+    /*
+     * The clip of the file, null if it is broken.
+     */
+    private PreparedClip read(final File file) {
+        try {
+            return (PreparedClip) SerializationUtils.deserialize(FileUtils.readFileToByteArray(file));
+        } catch (IOException | SerializationException | ClassCastException e) {
+            LogUtil.logWarning(e);
+            return null;
+        }
+    }
+
+    private String title(final PreparedClip clip) {
+        if (clip == null) {
+            return StringUtils.EMPTY;
+        }
+        return StringUtils.defaultString(clip.getNote().getTitle(), clip.getNote().getGuid());
+    }
+
+    /*
+     * The queued clips, oldest first.
+     */
+    private List<File> clips() {
+        return list(CLIPS);
+    }
+
+    /*
+     * The files the filter accepts, oldest first.
+     */
+    private List<File> list(final FileFilter filter) {
+        File[] files = folder.listFiles(filter);
+        if (files == null) {
+            return ListUtil.list();
+        }
+        Arrays.sort(files);
+        return ListUtil.toList(files);
+    }
+
+    /*
+     * File names are zero-padded sequence numbers, so they sort in the order
+     * the clips were queued.
+     */
+    private String nextName(final List<File> clips) {
+        if (!clips.isEmpty()) {
+            String last = clips.get(clips.size() - 1).getName();
+            sequence = Math.max(sequence, NumberUtils.toLong(StringUtils.removeEnd(last, Constants.OUTBOX_CLIP_EXTENSION)));
+        }
+        sequence++;
+        return String.format("%019d", sequence) + Constants.OUTBOX_CLIP_EXTENSION;
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.lttpp.eemory.client;
+
+import java.io.Serializable;
+
+import com.evernote.edam.type.LinkedNotebook;
+import com.evernote.edam.type.Note;
+
+/**
+ * A clip ready to be sent to Evernote: what is sent does not depend on
+ * anything but this, so it can be kept and sent later.
+ *
+ * The note is either a new note, or, if it has a guid, the content, resources
+ * and tags to prepend to the existing note of that guid, its content being
+ * the ENML of a new note.
+ */
+public class PreparedClip implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Note note;
+    private final LinkedNotebook linkedNotebook;
+
+    /**
+     * @param note
+     *            the note to create, or to prepend to the note of its guid
+     * @param linkedNotebook
+     *            the linked notebook the note is in, null for the user's own
+     *            notebooks
+     */
+    public PreparedClip(final Note note, final LinkedNotebook linkedNotebook) {
+        this.note = note;
+        this.linkedNotebook = linkedNotebook;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public LinkedNotebook getLinkedNotebook() {
+        return linkedNotebook;
+    }
+
+    public boolean isUpdate() {
+        return note.isSetGuid();
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.lttpp.eemory.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lttpp.eemory.Constants;
+
+import com.evernote.edam.error.EDAMErrorCode;
+import com.evernote.edam.error.EDAMNotFoundException;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.TException;
+import com.evernote.thrift.transport.TTransportException;
+
+/**
+ * All calls of an account to Evernote go through here, so they honor the rate
+ * limit of the account together, and recover from a dropped connection.
+ *
+ * Once Evernote answers RATE_LIMIT_REACHED, no call is sent until the
+ * duration it tells is over: the calls made meanwhile wait for it, then the
+ * rate limited call is sent again. If the wait is longer than
+ * {@link Constants#RATE_LIMIT_MAX_WAIT}, a call rather fails right away with
+ * RATE_LIMIT_REACHED and the duration left, without reaching Evernote. An
+ * idempotent call which fails with a transport error is sent again after an
+ * exponential back-off with jitter, unless the calling thread has been
+ * interrupted, which means the call has been cancelled.
+ */
+public class RequestScheduler {
+
+    private long blockedUntil; // guarded by this
+
+    public <T> T execute(final StoreCall<T> call) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        int rateLimited = 0;
+        int failed = 0;
+        while (true) {
+            awaitRateLimit();
+            try {
+                return answered(call);
+            } catch (EDAMSystemException e) {
+                if (e.getErrorCode() != EDAMErrorCode.RATE_LIMIT_REACHED || rateLimited++ >= Constants.REQUEST_RATE_LIMIT_RETRIES) {
+                    throw e;
+                }
+                rateLimitReached(e.getRateLimitDuration());
+            } catch (TTransportException e) {
+                if (!call.isIdempotent() || failed >= Constants.REQUEST_TRANSPORT_RETRIES || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                backOff(failed++);
+            }
+        }
+    }
+
+    private <T> T answered(final StoreCall<T> call) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            return call.call();
+        } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException e) {
+            StoreMetrics.answered(e);
+            throw e;
+        }
+    }
+
+    private synchronized void rateLimitReached(final int durationSeconds) {
+        blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + durationSeconds * 1000L);
+    }
+
+    private synchronized void awaitRateLimit() throws EDAMSystemException, TException {
+        long remaining;
+        while ((remaining = blockedUntil - System.currentTimeMillis()) > 0) {
+            if (remaining > Constants.RATE_LIMIT_MAX_WAIT) {
+                EDAMSystemException e = new EDAMSystemException(EDAMErrorCode.RATE_LIMIT_REACHED);
+                e.setRateLimitDuration((int) ((remaining + 999) / 1000));
+                throw e;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TException(e);
+            }
+        }
+    }
+
+    private void backOff(final int failed) throws TException {
+        // half fixed, half random, so the calls failed together do not come back together
+        long delay = Math.min(Constants.REQUEST_BACK_OFF_MAX, Constants.REQUEST_BACK_OFF_BASE << failed);
+        try {
+            Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException(e);
+        }
+    }
+
+}
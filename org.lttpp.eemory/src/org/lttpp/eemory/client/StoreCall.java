@@ -0,0 +1,27 @@
+package org.lttpp.eemory.client;
+
+import com.evernote.edam.error.EDAMNotFoundException;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+import com.evernote.thrift.TException;
+
+/**
+ * A call to Evernote, made through {@link RequestScheduler}.
+ *
+ * @param <T>
+ *            the result of the call
+ */
+public abstract class StoreCall<T> {
+
+    public abstract T call() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException;
+
+    /**
+     * Whether the call can be sent again if it might not have reached
+     * Evernote, i.e. it has the same effect sent once or twice. A call that
+     * creates something is not.
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
+}
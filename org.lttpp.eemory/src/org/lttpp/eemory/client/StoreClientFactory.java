@@ -1,64 +1,255 @@
 package org.lttpp.eemory.client;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.EemoryPlugin;
 import org.lttpp.eemory.Messages;
 import org.lttpp.eemory.exception.OutOfDateException;
+import org.lttpp.eemory.util.ConstantsUtil;
 import org.lttpp.eemory.util.EvernoteUtil;
+import org.lttpp.eemory.util.IDialogSettingsUtil;
+import org.lttpp.eemory.util.MapUtil;
 
 import com.evernote.auth.EvernoteAuth;
 import com.evernote.clients.ClientFactory;
 import com.evernote.clients.NoteStoreClient;
 import com.evernote.clients.UserStoreClient;
+import com.evernote.edam.error.EDAMErrorCode;
 import com.evernote.edam.error.EDAMNotFoundException;
 import com.evernote.edam.error.EDAMSystemException;
 import com.evernote.edam.error.EDAMUserException;
 import com.evernote.edam.type.LinkedNotebook;
+import com.evernote.edam.userstore.AuthenticationResult;
 import com.evernote.thrift.TException;
 import com.evernote.thrift.transport.TTransportException;
 
 public class StoreClientFactory {
 
+    // re-authenticate a linked notebook a little before the server expires it
+    private static final long LINKED_AUTH_EXPIRATION_MARGIN = 5 * 60 * 1000;
+
+    // <Plug-in Version:Brand, Time of the last passed version check>
+    private static final ConcurrentHashMap<String, Long> versionChecked = MapUtil.concurrentMap();
+
+    // <Brand:Token, Scheduler>, the rate limit of an account outlives the factories of the account
+    private static final ConcurrentHashMap<String, RequestScheduler> schedulers = MapUtil.concurrentMap();
+
+    private final String token;
     private final ClientFactory factory;
+    private final RequestScheduler scheduler;
+
+    private final NoteStoreClientPool noteStoreClients;
+    private volatile UserStoreClient userStoreClient;
 
-    private NoteStoreClient noteStoreClient;
-    private UserStoreClient userStoreClient;
+    private final ConcurrentHashMap<String, LinkedNoteStoreClientHolder> linkedNoteStoreClients = MapUtil.concurrentMap();
 
-    public StoreClientFactory(final String token) throws TException, OutOfDateException {
+    public StoreClientFactory(final String token) throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
+        this.token = token;
+        scheduler = scheduler(token);
         factory = auth(token);
+        noteStoreClients = new NoteStoreClientPool(factory, Constants.NOTE_STORE_POOL_SIZE);
         checkVersion();
     }
 
+    private static RequestScheduler scheduler(final String token) {
+        String key = EvernoteUtil.brand() + ConstantsUtil.COLON + token;
+        RequestScheduler scheduler = schedulers.get(key);
+        if (scheduler == null) {
+            RequestScheduler newScheduler = new RequestScheduler();
+            scheduler = schedulers.putIfAbsent(key, newScheduler);
+            if (scheduler == null) {
+                scheduler = newScheduler;
+            }
+        }
+        return scheduler;
+    }
+
     private ClientFactory auth(final String token) {
         EvernoteAuth evernoteAuth = new EvernoteAuth(EvernoteUtil.evernoteService(), token);
-        return new ClientFactory(evernoteAuth);
+        return new KeepAliveClientFactory(evernoteAuth);
     }
 
-    private void checkVersion() throws TException, OutOfDateException {
-        UserStoreClient userStore = getUserStoreClient();
-        boolean versionOk = userStore.checkVersion(EemoryPlugin.getName(), com.evernote.edam.userstore.Constants.EDAM_VERSION_MAJOR, com.evernote.edam.userstore.Constants.EDAM_VERSION_MINOR);
+    /*
+     * The outcome only depends on the plug-in version and the service, so a
+     * passed check is remembered for this session and, through the dialog
+     * settings, across sessions, and is re-run at most once a day.
+     */
+    private void checkVersion() throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
+        String key = EemoryPlugin.getVersion() + ConstantsUtil.COLON + EvernoteUtil.brand();
+        Long checked = versionChecked.get(key);
+        if (checked == null) {
+            checked = NumberUtils.toLong(IDialogSettingsUtil.get(Constants.PLUGIN_SETTINGS_SECTION_VERSION_CHECK, key));
+        }
+        long now = System.currentTimeMillis();
+        if (now - checked < Constants.VERSION_CHECK_INTERVAL && checked <= now) {
+            versionChecked.put(key, checked);
+            return;
+        }
+
+        final UserStoreClient userStore = getUserStoreClient();
+        boolean versionOk;
+        try {
+            versionOk = execute(new StoreCall<Boolean>() {
+                @Override
+                public Boolean call() throws TException {
+                    return userStore.checkVersion(EemoryPlugin.getName(), com.evernote.edam.userstore.Constants.EDAM_VERSION_MAJOR, com.evernote.edam.userstore.Constants.EDAM_VERSION_MINOR);
+                }
+            });
+        } catch (EDAMNotFoundException e) {
+            // checkVersion never looks anything up
+            throw new TException(e);
+        }
         if (!versionOk) {
             throw new OutOfDateException(Messages.Plugin_Error_OutOfDate);
         }
+        versionChecked.put(key, now);
+        IDialogSettingsUtil.set(Constants.PLUGIN_SETTINGS_SECTION_VERSION_CHECK, key, String.valueOf(now));
     }
 
-    public NoteStoreClient getNoteStoreClient() throws EDAMUserException, EDAMSystemException, TException {
-        if (noteStoreClient == null) {
-            synchronized (StoreClientFactory.class) {
-                if (noteStoreClient == null) {
-                    noteStoreClient = factory.createNoteStoreClient();
+    /**
+     * Make the given call to Evernote through the request scheduler of this
+     * account, see {@link RequestScheduler}.
+     */
+    public <T> T execute(final StoreCall<T> call) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        return scheduler.execute(call);
+    }
+
+    /**
+     * Make the given call to the note store of the user's own notebooks, or
+     * of the given linked notebook if it is not null, through the request
+     * scheduler of this account. Each attempt checks a client out of the pool
+     * of the shard for the time of the call, so concurrent calls never share
+     * a client. A client whose call failed on the way is not returned, as
+     * its protocol may be left in the middle of a message.
+     *
+     * @param linkedNotebook
+     *            the linked notebook to access, or null
+     * @param call
+     *            the call to make
+     * @return the result of the call
+     */
+    public <T> T execute(final LinkedNotebook linkedNotebook, final NoteStoreCall<T> call) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        final NoteStoreClientPool pool = linkedNotebook != null ? holder(linkedNotebook).get(linkedNotebook) : noteStoreClients;
+        return execute(new StoreCall<T>() {
+            @Override
+            public T call() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                NoteStoreClient client = pool.checkOut();
+                T result;
+                try {
+                    result = call.call(client);
+                } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException e) {
+                    // the answer was read completely
+                    pool.checkIn(client);
+                    throw e;
                 }
+                pool.checkIn(client);
+                return result;
             }
+
+            @Override
+            public boolean isIdempotent() {
+                return call.isIdempotent();
+            }
+        });
+    }
+
+    /**
+     * Authenticate to the shared notebook of the given linked notebook with
+     * the user's own token, unless a pool of it is already authenticated.
+     * Calls to the linked notebook do it anyway, this only tells a rejected
+     * token of the user from a rejected share.
+     *
+     * @param linkedNotebook
+     *            the linked notebook to authenticate to
+     */
+    public void authenticate(final LinkedNotebook linkedNotebook) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        holder(linkedNotebook).get(linkedNotebook);
+    }
+
+    /**
+     * Drop the client pool of the given linked notebook if the exception
+     * tells the shared notebook authentication has expired, so that the next
+     * call to it authenticates again. Pools are kept per linked notebook and
+     * share key until the shared notebook authentication expires, or until
+     * they are dropped this way.
+     *
+     * @return true if the pool was dropped and the call is worth a retry.
+     */
+    public boolean evictIfAuthExpired(final LinkedNotebook linkedNotebook, final EDAMUserException e) {
+        if (linkedNotebook == null || e.getErrorCode() != EDAMErrorCode.AUTH_EXPIRED) {
+            return false;
         }
-        return noteStoreClient;
+        LinkedNoteStoreClientHolder holder = linkedNoteStoreClients.remove(linkedNotebookKey(linkedNotebook));
+        if (holder == null) {
+            return false;
+        }
+        holder.close();
+        return true;
+    }
+
+    private LinkedNoteStoreClientHolder holder(final LinkedNotebook linkedNotebook) {
+        String key = linkedNotebookKey(linkedNotebook);
+        LinkedNoteStoreClientHolder holder = linkedNoteStoreClients.get(key);
+        if (holder == null) {
+            LinkedNoteStoreClientHolder newHolder = new LinkedNoteStoreClientHolder();
+            holder = linkedNoteStoreClients.putIfAbsent(key, newHolder);
+            if (holder == null) {
+                holder = newHolder;
+            }
+        }
+        return holder;
     }
 
-    public NoteStoreClient getLinkedNoteStoreClient(final LinkedNotebook linkedNotebook) throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
-        return factory.createLinkedNoteStoreClient(linkedNotebook).getClient();
+    private String linkedNotebookKey(final LinkedNotebook linkedNotebook) {
+        return linkedNotebook.getGuid() + ConstantsUtil.COLON + linkedNotebook.getShareKey();
+    }
+
+    private NoteStoreClientPool createLinkedNoteStoreClientPool(final LinkedNotebook linkedNotebook, final AuthenticationResult authResult) {
+        EvernoteAuth linkedAuth = new EvernoteAuth(EvernoteUtil.evernoteService(), authResult.getAuthenticationToken(), linkedNotebook.getNoteStoreUrl(), linkedNotebook.getWebApiUrlPrefix(), 0);
+        return new NoteStoreClientPool(new KeepAliveClientFactory(linkedAuth), Constants.NOTE_STORE_POOL_SIZE);
+    }
+
+    private AuthenticationResult authenticateToSharedNotebook(final LinkedNotebook linkedNotebook) throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
+        EvernoteAuth personalAuth = new EvernoteAuth(EvernoteUtil.evernoteService(), token, linkedNotebook.getNoteStoreUrl(), linkedNotebook.getWebApiUrlPrefix(), 0);
+        final NoteStoreClient client = new KeepAliveClientFactory(personalAuth).createNoteStoreClient();
+        return execute(new StoreCall<AuthenticationResult>() {
+            @Override
+            public AuthenticationResult call() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.authenticateToSharedNotebook(linkedNotebook.getShareKey());
+            }
+        });
+    }
+
+    private class LinkedNoteStoreClientHolder {
+
+        private NoteStoreClientPool pool;
+        private long expiration;
+
+        public synchronized NoteStoreClientPool get(final LinkedNotebook linkedNotebook) throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
+            if (pool == null || System.currentTimeMillis() >= expiration) {
+                AuthenticationResult authResult = authenticateToSharedNotebook(linkedNotebook);
+                if (pool != null) {
+                    pool.close();
+                }
+                pool = createLinkedNoteStoreClientPool(linkedNotebook, authResult);
+                expiration = authResult.isSetExpiration() ? System.currentTimeMillis() + authResult.getExpiration() - authResult.getCurrentTime() - LINKED_AUTH_EXPIRATION_MARGIN : Long.MAX_VALUE;
+            }
+            return pool;
+        }
+
+        public synchronized void close() {
+            if (pool != null) {
+                pool.close();
+            }
+        }
+
     }
 
     public UserStoreClient getUserStoreClient() throws TTransportException {
         if (userStoreClient == null) {
-            synchronized (StoreClientFactory.class) {
+            synchronized (this) {
                 if (userStoreClient == null) {
                     userStoreClient = factory.createUserStoreClient();
                 }
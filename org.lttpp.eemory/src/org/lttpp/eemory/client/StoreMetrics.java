@@ -0,0 +1,255 @@
+package org.lttpp.eemory.client;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.io.FileUtils;
+import org.lttpp.eemory.Messages;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+
+import com.evernote.edam.error.EDAMNotFoundException;
+import com.evernote.edam.error.EDAMSystemException;
+import com.evernote.edam.error.EDAMUserException;
+
+/**
+ * Counts, latencies, payload sizes and errors of the calls to Evernote per
+ * operation, e.g. createNote or findNotesMetadata, since start up or the last
+ * {@link #reset()}, for all accounts.
+ *
+ * A call is recorded by {@link KeepAliveHttpClient} as it goes over the wire,
+ * so a call sent again counts again, and its latency is the round trip of
+ * the request and the response. Errors Evernote answers with are recorded by
+ * {@link RequestScheduler} on the operation of the call. The time spent
+ * building a clip before anything is sent is recorded as {@link #PREPARE}, to
+ * tell it from the time spent on the wire.
+ */
+public class StoreMetrics {
+
+    public static final String PREPARE = "prepare (local)";
+
+    // upper bounds of the latency buckets in milliseconds, the last bucket has none
+    private static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private static final ConcurrentHashMap<String, OperationMetrics> operations = MapUtil.concurrentMap();
+
+    // the operation the thread sent last, which an error it gets is about
+    private static final ThreadLocal<String> lastOperation = new ThreadLocal<String>();
+
+    private static volatile long since = System.currentTimeMillis();
+
+    /**
+     * Record a call sent to Evernote.
+     *
+     * @param operation
+     *            the name of the operation
+     * @param nanos
+     *            how long the call took
+     * @param bytesSent
+     *            the size of the request
+     * @param bytesReceived
+     *            the size of the response, 0 if there is none
+     * @param error
+     *            what the call failed with on the way, null if it got an
+     *            answer
+     */
+    public static void called(final String operation, final long nanos, final long bytesSent, final long bytesReceived, final String error) {
+        lastOperation.set(operation);
+        OperationMetrics metrics = metrics(operation);
+        metrics.record(nanos);
+        metrics.bytesSent.addAndGet(bytesSent);
+        metrics.bytesReceived.addAndGet(bytesReceived);
+        if (error != null) {
+            metrics.failed(error);
+        }
+    }
+
+    /**
+     * Record the error Evernote answered the last call of this thread with.
+     */
+    public static void answered(final Exception e) {
+        String operation = lastOperation.get();
+        if (operation == null) {
+            return;
+        }
+        String code;
+        if (e instanceof EDAMUserException) {
+            code = String.valueOf(((EDAMUserException) e).getErrorCode());
+        } else if (e instanceof EDAMSystemException) {
+            code = String.valueOf(((EDAMSystemException) e).getErrorCode());
+        } else if (e instanceof EDAMNotFoundException) {
+            code = "NOT_FOUND " + ((EDAMNotFoundException) e).getIdentifier();
+        } else {
+            code = e.getClass().getSimpleName();
+        }
+        metrics(operation).failed(code);
+    }
+
+    /**
+     * Record how long a local step took, e.g. {@link #PREPARE}.
+     */
+    public static void timed(final String operation, final long nanos) {
+        metrics(operation).record(nanos);
+    }
+
+    /**
+     * @return <Operation, Metrics of it>, by operation
+     */
+    public static Map<String, OperationMetrics> snapshot() {
+        return new TreeMap<String, OperationMetrics>(operations);
+    }
+
+    public static void reset() {
+        operations.clear();
+        since = System.currentTimeMillis();
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder(Messages.bind(Messages.Plugin_Runtime_StoreMetrics, new Date(since)));
+        for (Entry<String, OperationMetrics> e : snapshot().entrySet()) {
+            report.append(System.lineSeparator()).append(e.getKey()).append(": ").append(e.getValue());
+        }
+        return report.toString();
+    }
+
+    /**
+     * Write the metrics to the Eclipse log, if any call has been made.
+     */
+    public static void dump() {
+        if (!operations.isEmpty()) {
+            LogUtil.logInfo(report());
+        }
+    }
+
+    private static OperationMetrics metrics(final String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = operations.putIfAbsent(operation, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    public static class OperationMetrics {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+        private final ConcurrentHashMap<String, AtomicLong> errors = MapUtil.concurrentMap();
+
+        private void record(final long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            calls.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            long max;
+            while (millis > (max = maxMillis.get()) && !maxMillis.compareAndSet(max, millis)) {
+                // lost to another call, see if it is still the max
+            }
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            latencies.incrementAndGet(bucket);
+        }
+
+        private void failed(final String error) {
+            failures.incrementAndGet();
+            AtomicLong count = errors.get(error);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = errors.putIfAbsent(error, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        /**
+         * @return the number of calls per latency bucket, the bucket i is up
+         *         to {@link #getLatencyBucket(int)} milliseconds, the last one
+         *         is above all the others
+         */
+        public long[] getLatencies() {
+            long[] counts = new long[latencies.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = latencies.get(i);
+            }
+            return counts;
+        }
+
+        public static long getLatencyBucket(final int i) {
+            return i < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[i] : Long.MAX_VALUE;
+        }
+
+        /**
+         * @return <Error code, Count>
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> counts = MapUtil.orderedMap();
+            for (Entry<String, AtomicLong> e : errors.entrySet()) {
+                counts.put(e.getKey(), e.getValue().get());
+            }
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+            long n = getCalls();
+            StringBuilder s = new StringBuilder();
+            s.append(n).append(" calls, ").append(getFailures()).append(" failed, avg ").append(n > 0 ? getTotalMillis() / n : 0).append(" ms, max ").append(getMaxMillis()).append(" ms");
+            if (getBytesSent() > 0 || getBytesReceived() > 0) {
+                s.append(", sent ").append(FileUtils.byteCountToDisplaySize(getBytesSent())).append(", received ").append(FileUtils.byteCountToDisplaySize(getBytesReceived()));
+            }
+            s.append(", latencies");
+            long[] counts = getLatencies();
+            for (int i = 0; i < counts.length; i++) {
+                s.append(i < LATENCY_BUCKETS.length ? " <=" + LATENCY_BUCKETS[i] : " >" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]).append(':').append(counts[i]);
+            }
+            Map<String, Long> errorCounts = getErrors();
+            if (!errorCounts.isEmpty()) {
+                s.append(", errors ").append(errorCounts);
+            }
+            return s.toString();
+        }
+
+    }
+
+}
@@ -2,27 +2,55 @@ package org.lttpp.eemory.client.impl;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.Messages;
+import org.lttpp.eemory.client.AccountSync;
+import org.lttpp.eemory.client.ClientHealth;
 import org.lttpp.eemory.client.EeClipper;
+import org.lttpp.eemory.client.KeepAliveHttpClient;
+import org.lttpp.eemory.client.MetadataCache;
+import org.lttpp.eemory.client.NoteOps;
+import org.lttpp.eemory.client.NotePages;
+import org.lttpp.eemory.client.NoteStoreCall;
+import org.lttpp.eemory.client.NotesListener;
+import org.lttpp.eemory.client.Outbox;
+import org.lttpp.eemory.client.PreparedClip;
 import org.lttpp.eemory.client.StoreClientFactory;
+import org.lttpp.eemory.client.StoreMetrics;
 import org.lttpp.eemory.client.impl.model.ENNoteImpl;
 import org.lttpp.eemory.client.impl.model.ENObjectImpl;
 import org.lttpp.eemory.client.metadata.ENObjectType;
 import org.lttpp.eemory.client.model.ENNote;
 import org.lttpp.eemory.client.model.ENObject;
+import org.lttpp.eemory.exception.ClipBatchException;
+import org.lttpp.eemory.exception.EDAMDataModel;
 import org.lttpp.eemory.exception.NoDataFoundException;
 import org.lttpp.eemory.exception.OutOfDateException;
 import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.EclipseUtil;
 import org.lttpp.eemory.util.ListStringizer;
 import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
 import org.lttpp.eemory.util.MapUtil;
 import org.lttpp.eemory.util.StringUtil;
+import org.lttpp.eemory.util.ThreadUtil;
 import org.w3c.dom.DOMException;
 import org.xml.sax.SAXException;
 
@@ -34,16 +62,24 @@ import com.evernote.edam.notestore.NoteFilter;
 import com.evernote.edam.notestore.NoteMetadata;
 import com.evernote.edam.notestore.NotesMetadataList;
 import com.evernote.edam.notestore.NotesMetadataResultSpec;
+import com.evernote.edam.notestore.SyncState;
 import com.evernote.edam.type.LinkedNotebook;
 import com.evernote.edam.type.Notebook;
 import com.evernote.edam.type.SharedNotebook;
 import com.evernote.edam.type.Tag;
 import com.evernote.thrift.TException;
-import com.evernote.thrift.transport.TTransportException;
 
 public class EeClipperImpl extends EeClipper {
 
+    private static final ExecutorService linkedNotebookExecutor = ThreadUtil.newDaemonThreadPool(Constants.LINKED_NOTEBOOK_THREAD_NAME, Constants.LINKED_NOTEBOOK_THREADS);
+    private static final ExecutorService notePageExecutor = ThreadUtil.newDaemonThreadPool(Constants.NOTE_PAGE_THREAD_NAME, Constants.NOTE_PAGE_THREADS);
+
     private final StoreClientFactory factory;
+    private final AccountSync accountSync;
+    private final Outbox outbox;
+
+    private final MetadataCache metadataCache = new MetadataCache(Constants.METADATA_CACHE_TTL);
+    private final ClientHealth health = new ClientHealth(Constants.CLIENT_HEALTH_IDLE_TIMEOUT);
 
     /**
      * create a Clipper instance which can be reused.
@@ -51,8 +87,14 @@ public class EeClipperImpl extends EeClipper {
      * @param token
      *            used to auth Evernote
      */
-    public EeClipperImpl(final String token) throws TException, OutOfDateException {
+    public EeClipperImpl(final String token) throws TException, EDAMUserException, EDAMSystemException, OutOfDateException {
         factory = new StoreClientFactory(token);
+        accountSync = AccountSync.forAccount(token, factory);
+        outbox = Outbox.forAccount(token);
+        if (!outbox.isEmpty()) {
+            // left over from last time, or from the clipper this one replaces
+            outbox.drainLater(outboxSender(), 0);
+        }
     }
 
     /**
@@ -64,7 +106,11 @@ public class EeClipperImpl extends EeClipper {
      */
     @Override
     public void clipFile(final ENNote args) throws NoSuchAlgorithmException, EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, IOException, ParserConfigurationException, SAXException, NoDataFoundException {
-        new NoteOpsFileImpl(factory).updateOrCreate(args);
+        NoteOpsFileImpl ops = new NoteOpsFileImpl(factory);
+        long start = System.nanoTime();
+        PreparedClip clip = ops.prepare(args);
+        StoreMetrics.timed(StoreMetrics.PREPARE, System.nanoTime() - start);
+        clip(ops, clip);
     }
 
     /**
@@ -76,7 +122,151 @@ public class EeClipperImpl extends EeClipper {
      */
     @Override
     public void clipSelection(final ENNote args) throws DOMException, EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException, NoDataFoundException {
-        new NoteOpsTextImpl(factory).updateOrCreate(args);
+        NoteOpsTextImpl ops = new NoteOpsTextImpl(factory);
+        long start = System.nanoTime();
+        PreparedClip clip = ops.prepare(args);
+        StoreMetrics.timed(StoreMetrics.PREPARE, System.nanoTime() - start);
+        clip(ops, clip);
+    }
+
+    /**
+     * Clip the selections and files to Evernote, with a round trip to fetch
+     * and another to update per existing note, however many clips go to it.
+     * All the clips are prepared before any is sent, the clips which cannot
+     * be sent for now are queued. A batch which fails otherwise, e.g. its
+     * note is gone, does not stop the others.
+     *
+     * @param args
+     *            the clips, a clip with attachments clips files, otherwise
+     *            the selection
+     * @throws ClipBatchException
+     *             if some of the clips were neither sent nor queued
+     */
+    @Override
+    public void clipBatch(final List<ENNote> args) throws NoSuchAlgorithmException, DOMException, EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException, NoDataFoundException, ClipBatchException {
+        NoteOpsFileImpl fileOps = new NoteOpsFileImpl(factory);
+        NoteOpsTextImpl textOps = new NoteOpsTextImpl(factory);
+
+        // <Note Guid, Clips to the note>, a new note is a batch of its own
+        Map<String, List<PreparedClip>> batches = MapUtil.orderedMap();
+        // <Clip, What was clipped>
+        Map<PreparedClip, ENNote> clipped = MapUtil.map();
+        for (int i = 0; i < args.size(); i++) {
+            ENNote a = args.get(i);
+            long start = System.nanoTime();
+            PreparedClip clip = ListUtil.isNullOrEmptyList(a.getAttachments()) ? textOps.prepare(a) : fileOps.prepare(a);
+            StoreMetrics.timed(StoreMetrics.PREPARE, System.nanoTime() - start);
+            String key = clip.isUpdate() ? clip.getNote().getGuid() : String.valueOf(i);
+            List<PreparedClip> batch = batches.get(key);
+            if (batch == null) {
+                batch = ListUtil.list();
+                batches.put(key, batch);
+            }
+            batch.add(clip);
+            clipped.put(clip, a);
+        }
+
+        List<List<PreparedClip>> pending = ListUtil.toList(batches.values());
+        if (!outbox.isEmpty()) {
+            queue(pending);
+            outbox.drainLater(outboxSender(), 0);
+            return;
+        }
+        Map<ENNote, Exception> failures = MapUtil.orderedMap();
+        while (!pending.isEmpty()) {
+            List<PreparedClip> batch = pending.remove(0);
+            try {
+                textOps.send(batch);
+            } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException | TException e) {
+                health.failed(e);
+                if (Outbox.shouldQueue(e)) {
+                    pending.add(0, batch);
+                    queue(pending);
+                    outbox.drainLater(outboxSender(), Constants.OUTBOX_RETRY_DELAY);
+                    break;
+                }
+                if (batches.size() == 1) {
+                    // a single batch fails as a single clip does
+                    throw e;
+                }
+                for (PreparedClip clip : batch) {
+                    failures.put(clipped.get(clip), e);
+                }
+                continue;
+            }
+            for (PreparedClip clip : batch) {
+                clipped(clip);
+            }
+        }
+        if (!failures.isEmpty()) {
+            List<String> names = ListUtil.list();
+            for (ENNote a : failures.keySet()) {
+                names.add(StringUtil.toQuotedString(a.getName()));
+            }
+            throw new ClipBatchException(Messages.bind(Messages.Plugin_Error_ClipsNotSent, new Object[] { failures.size(), args.size(), StringUtils.join(names, ConstantsUtil.COMMA + StringUtils.SPACE) }), failures);
+        }
+    }
+
+    private void queue(final List<List<PreparedClip>> batches) throws IOException {
+        for (List<PreparedClip> batch : batches) {
+            for (PreparedClip clip : batch) {
+                queue(clip);
+            }
+        }
+    }
+
+    /*
+     * Send the clip, or queue it if Evernote cannot take it now. While clips
+     * are queued, new ones are queued behind them, so they arrive in order.
+     */
+    private void clip(final NoteOps ops, final PreparedClip clip) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException, ParserConfigurationException, SAXException, IOException {
+        if (!outbox.isEmpty()) {
+            queue(clip);
+            outbox.drainLater(outboxSender(), 0);
+            return;
+        }
+        try {
+            ops.send(clip);
+        } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException | TException e) {
+            health.failed(e);
+            if (!Outbox.shouldQueue(e)) {
+                throw e;
+            }
+            queue(clip);
+            outbox.drainLater(outboxSender(), Constants.OUTBOX_RETRY_DELAY);
+            return;
+        }
+        clipped(clip);
+    }
+
+    private void queue(final PreparedClip clip) throws IOException {
+        outbox.add(clip);
+        EclipseUtil.showStatus(LogUtil.info(Messages.bind(Messages.Plugin_Runtime_ClipQueued, StringUtils.defaultString(clip.getNote().getTitle(), clip.getNote().getGuid()))));
+    }
+
+    private Outbox.Sender outboxSender() {
+        return new Outbox.Sender() {
+            @Override
+            public void send(final PreparedClip clip) throws Exception {
+                try {
+                    // sending does not depend on what was clipped
+                    new NoteOpsTextImpl(factory).send(clip);
+                } catch (Exception e) {
+                    health.failed(e);
+                    throw e;
+                }
+                clipped(clip);
+            }
+        };
+    }
+
+    private void clipped(final PreparedClip clip) {
+        health.reached();
+        // a new note or a renamed one changes the note titles, new tags may be created as well
+        metadataCache.invalidateNotes();
+        if (clip.getNote().isSetTagNames()) {
+            metadataCache.invalidate(MetadataCache.TAGS);
+        }
     }
 
     /**
@@ -85,18 +275,32 @@ public class EeClipperImpl extends EeClipper {
      * @return The user's notebooks.
      */
     @Override
-    public Map<String, ENObject> listNotebooks() throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
-        List<Notebook> notebooks = factory.getNoteStoreClient().listNotebooks();
-        List<LinkedNotebook> linkedNotebooks = factory.getNoteStoreClient().listLinkedNotebooks();
+    public Map<String, ENObject> listNotebooks() throws Exception {
+        return MapUtil.map(metadataCache.get(MetadataCache.NOTEBOOKS, observed(new Callable<Map<String, ENObject>>() {
+            @Override
+            public Map<String, ENObject> call() throws Exception {
+                return loadNotebooks();
+            }
+        })));
+    }
+
+    private Map<String, ENObject> loadNotebooks() throws EDAMUserException, EDAMSystemException, TException, EDAMNotFoundException {
+        accountSync.syncMetadata();
+        List<Notebook> notebooks = accountSync.getNotebooks();
+        List<LinkedNotebook> linkedNotebooks = accountSync.getLinkedNotebooks();
 
         Map<String, ENObject> map = MapUtil.map();
         for (Notebook n : notebooks) {
             map.put(n.getName(), ENObjectImpl.forNameAndGuid(n.getName(), n.getGuid()));
         }
 
-        for (LinkedNotebook linkedNotebook : linkedNotebooks) { // LinkedNotebook must be serializable
-            NoteStoreClient linkedNoteStore = factory.getLinkedNoteStoreClient(linkedNotebook);
-            SharedNotebook sharedNotebook = linkedNoteStore.getSharedNotebookByAuth();
+        List<SharedNotebook> sharedNotebooks = getSharedNotebooks(linkedNotebooks);
+        for (int i = 0; i < linkedNotebooks.size(); i++) {
+            LinkedNotebook linkedNotebook = linkedNotebooks.get(i); // LinkedNotebook must be serializable
+            SharedNotebook sharedNotebook = sharedNotebooks.get(i);
+            if (sharedNotebook == null) {
+                continue;
+            }
 
             if (map.containsKey(linkedNotebook.getShareName())) {
                 map.put(linkedNotebook.getShareName() + ConstantsUtil.LEFT_PARENTHESIS + linkedNotebook.getUsername() + ConstantsUtil.COLON + sharedNotebook.getNotebookGuid() + ConstantsUtil.RIGHT_PARENTHESIS, ENObjectImpl.forValues(linkedNotebook.getShareName(), sharedNotebook.getNotebookGuid(), ENObjectType.LINKED, linkedNotebook));
@@ -111,48 +315,511 @@ public class EeClipperImpl extends EeClipper {
     /**
      * return a user's all notes(uuid-ENNote) inside the specified notebook.
      *
+     * The listener is only told of the pages fetched from Evernote while this
+     * call waits for them, not of the notes of the cache or of the sync.
+     *
      * @param args
      *            all things needed to list notes, such as notebook guid.
+     * @param listener
+     *            told of the notes as the pages arrive, or null
      * @return The notes in the certain notebook.
      */
     @Override
-    public Map<String, ENNote> listNotesWithinNotebook(final ENNote args) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+    public Map<String, ENNote> listNotesWithinNotebook(final ENNote args, final NotesListener listener) throws Exception {
+        // the cache may reload in background later, which is nobody's business
+        final AtomicBoolean listening = new AtomicBoolean(true);
+        final NotesListener whileListing = listener == null ? null : new NotesListener() {
+            @Override
+            public void notesFound(final Map<String, ENNote> notes) {
+                if (listening.get()) {
+                    listener.notesFound(notes);
+                }
+            }
+        };
+        try {
+            return MapUtil.map(metadataCache.get(MetadataCache.notesKey(args.getNotebook().getGuid(), args.getName()), observed(new Callable<Map<String, ENNote>>() {
+                @Override
+                public Map<String, ENNote> call() throws Exception {
+                    return loadNotesWithinNotebook(args, whileListing);
+                }
+            })));
+        } finally {
+            listening.set(false);
+        }
+    }
+
+    private Map<String, ENNote> loadNotesWithinNotebook(final ENNote args, final NotesListener listener) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        List<NoteMetadata> noteList;
+        if (isSynced(args)) {
+            noteList = syncNotesWithinNotebook(args.getNotebook().getGuid());
+        } else {
+            noteList = searchNotesWithinNotebook(args, titleWords(args.getName()), Integer.MAX_VALUE, listener);
+        }
+        return toNoteMap(noteList);
+    }
+
+    /**
+     * List the notes within the notebook a page at a time. The notes of the
+     * user's own notebooks are at hand once synced, so they come in a single
+     * page, the others are searched for a page at a time, as they are asked
+     * for.
+     *
+     * @param args
+     *            all things needed to list notes, such as notebook guid.
+     * @return The pages of the notes in the certain notebook.
+     */
+    @Override
+    public NotePages pageNotesWithinNotebook(final ENNote args) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        if (!isSynced(args)) {
+            return new SearchPages(linkedNotebook(args), noteFilter(args, titleWords(args.getName())));
+        }
+        List<NoteMetadata> noteList;
+        try {
+            noteList = syncNotesWithinNotebook(args.getNotebook().getGuid());
+        } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException | TException e) {
+            health.failed(e);
+            throw e;
+        }
+        health.reached();
+        final List<ENNote> notes = toNoteList(noteList);
+        return new NotePages() {
+            private boolean listed = false;
+
+            @Override
+            public List<ENNote> next() {
+                if (listed) {
+                    return ListUtil.list();
+                }
+                listed = true;
+                return notes;
+            }
+        };
+    }
+
+    /*
+     * Searches a page of notes each time it is asked for, the number of notes
+     * there are is known from the first page on.
+     */
+    private class SearchPages implements NotePages {
+
+        private final LinkedNotebook linkedNotebook;
+        private final NoteFilter filter;
+        private final NotesMetadataResultSpec resultSpec = titleResultSpec();
+
+        private int offset = 0;
+        private int totalNotes = Integer.MAX_VALUE;
+
+        public SearchPages(final LinkedNotebook linkedNotebook, final NoteFilter filter) {
+            this.linkedNotebook = linkedNotebook;
+            this.filter = filter;
+        }
+
+        @Override
+        public List<ENNote> next() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+            if (offset >= totalNotes) {
+                return ListUtil.list();
+            }
+            NotesMetadataList page;
+            try {
+                page = findNotesMetadataPage(linkedNotebook, filter, resultSpec, offset, com.evernote.edam.limits.Constants.EDAM_USER_NOTES_MAX);
+            } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException | TException e) {
+                health.failed(e);
+                throw e;
+            }
+            health.reached();
+            offset += page.getNotesSize();
+            // an empty page ends the listing, even if notes went away meanwhile
+            totalNotes = page.getNotesSize() > 0 ? page.getTotalNotes() : offset;
+            return toNoteList(page.getNotes());
+        }
+
+    }
+
+    /*
+     * Notes of the user's own notebooks are listed from the local index,
+     * which sync keeps up to date, as long as no name is searched for.
+     */
+    private boolean isSynced(final ENNote args) {
+        return args.getNotebook().getType() != ENObjectType.LINKED && StringUtils.isBlank(args.getName());
+    }
+
+    private String titleWords(final String name) {
+        return StringUtils.isNotBlank(name) ? Constants.EDAM_SYNTAX_INTITLE + StringUtil.toQuotedString(name) : null;
+    }
+
+    /**
+     * return at most maxNotes notes inside the specified notebook, whose title
+     * has words starting with the words of the given name. The note index of
+     * a notebook of the user's own, as of the latest sync, is looked up first,
+     * Evernote is only searched if it has too few titles starting with the
+     * name.
+     *
+     * @param args
+     *            all things needed to search notes, such as notebook guid and
+     *            the name typed so far.
+     * @param maxNotes
+     *            the maximum number of notes to return.
+     * @return The notes found in the certain notebook.
+     */
+    @Override
+    public Map<String, ENNote> findNotesWithinNotebook(final ENNote args, final int maxNotes) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        String name = StringUtils.remove(StringUtils.remove(args.getName(), ConstantsUtil.DOUBLE_QUOTE), ConstantsUtil.STAR);
+        List<String> words = ListUtil.list();
+        for (String word : StringUtils.split(name)) {
+            words.add(Constants.EDAM_SYNTAX_INTITLE + word);
+        }
+        if (words.isEmpty()) {
+            return MapUtil.map();
+        }
+        if (args.getNotebook().getType() != ENObjectType.LINKED && StringUtils.isNotBlank(args.getNotebook().getGuid())) {
+            // the titles starting with the name have its words as well, so enough of them in the local index save the search
+            List<NoteMetadata> titled = accountSync.getNotes(args.getNotebook().getGuid(), StringUtils.trim(name), maxNotes);
+            if (titled.size() >= maxNotes) {
+                return toNoteMap(titled);
+            }
+        }
+        // prefix match on the word being typed
+        words.set(words.size() - 1, words.get(words.size() - 1) + ConstantsUtil.STAR);
+        List<NoteMetadata> noteList;
+        try {
+            noteList = searchNotesWithinNotebook(args, StringUtils.join(words, StringUtils.SPACE), maxNotes, null);
+        } catch (EDAMUserException | EDAMSystemException | EDAMNotFoundException | TException e) {
+            health.failed(e);
+            throw e;
+        }
+        health.reached();
+        return toNoteMap(noteList);
+    }
+
+    /*
+     * Record the outcome of a load on the health of the connection.
+     */
+    private <V> Callable<V> observed(final Callable<V> loader) {
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V value;
+                try {
+                    value = loader.call();
+                } catch (Exception e) {
+                    health.failed(e);
+                    throw e;
+                }
+                health.reached();
+                return value;
+            }
+        };
+    }
+
+    private List<ENNote> toNoteList(final List<NoteMetadata> noteList) {
+        List<ENNote> notes = ListUtil.list();
+        for (NoteMetadata n : noteList) {
+            notes.add(ENNoteImpl.forNameAndGuid(n.getTitle(), n.getGuid()));
+        }
+        return notes;
+    }
+
+    private Map<String, ENNote> toNoteMap(final List<NoteMetadata> noteList) {
+        Map<String, ENNote> map = MapUtil.map();
+        addToNoteMap(map, noteList);
+        return map;
+    }
+
+    /*
+     * A note is named after its title, or after its title and guid if the
+     * title is taken by a note before it. Return the notes added.
+     */
+    private Map<String, ENNote> addToNoteMap(final Map<String, ENNote> map, final List<NoteMetadata> noteList) {
+        Map<String, ENNote> added = MapUtil.map();
+        for (NoteMetadata n : noteList) {
+            String name = map.containsKey(n.getTitle()) ? n.getTitle() + ConstantsUtil.LEFT_PARENTHESIS + n.getGuid() + ConstantsUtil.RIGHT_PARENTHESIS : n.getTitle();
+            ENNote note = ENNoteImpl.forNameAndGuid(n.getTitle(), n.getGuid());
+            map.put(name, note);
+            added.put(name, note);
+        }
+        return added;
+    }
+
+    /*
+     * Notes of the user's own notebooks, all notes if notebook guid is blank,
+     * are kept up to date by incremental sync.
+     */
+    private List<NoteMetadata> syncNotesWithinNotebook(final String notebookGuid) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        if (StringUtils.isNotBlank(notebookGuid)) {
+            accountSync.syncMetadata();
+            if (!accountSync.hasNotebook(notebookGuid)) {
+                // same as what findNotesMetadata tells about an unknown notebook
+                EDAMNotFoundException e = new EDAMNotFoundException();
+                e.setIdentifier(EDAMDataModel.Notebook_guid.toString());
+                e.setKey(notebookGuid);
+                throw e;
+            }
+        }
+        accountSync.syncNotes();
+        return accountSync.getNotes(notebookGuid);
+    }
+
+    /*
+     * Linked notebooks are not covered by the user's sync, and a note name is
+     * a search.
+     */
+    private List<NoteMetadata> searchNotesWithinNotebook(final ENNote args, final String words, final int maxNotes, final NotesListener listener) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        NoteFilter filter = noteFilter(args, words);
+        NotesMetadataResultSpec resultSpec = titleResultSpec();
+        LinkedNotebook linkedNotebook = linkedNotebook(args);
+        try {
+            return findAllNotesMetadata(linkedNotebook, filter, resultSpec, maxNotes, listener);
+        } catch (EDAMUserException e) {
+            if (!factory.evictIfAuthExpired(linkedNotebook, e)) {
+                throw e;
+            }
+            return findAllNotesMetadata(linkedNotebook, filter, resultSpec, maxNotes, listener);
+        }
+    }
+
+    private NoteFilter noteFilter(final ENNote args, final String words) {
         NoteFilter filter = new NoteFilter();
         filter.setInactive(false);
         if (StringUtils.isNotBlank(args.getNotebook().getGuid())) {
             filter.setNotebookGuid(args.getNotebook().getGuid());
         }
-        if (StringUtils.isNotBlank(args.getName())) {
-            filter.setWords(Constants.EDAM_SYNTAX_INTITLE + StringUtil.toQuotedString(args.getName()));
+        if (StringUtils.isNotBlank(words)) {
+            filter.setWords(words);
         }
+        return filter;
+    }
 
+    private NotesMetadataResultSpec titleResultSpec() {
         NotesMetadataResultSpec resultSpec = new NotesMetadataResultSpec();
         resultSpec.setIncludeTitle(true);
+        return resultSpec;
+    }
+
+    private LinkedNotebook linkedNotebook(final ENNote args) {
+        // args.getNotebook().getLinkedObject() should NOT be null if linked
+        return args.getNotebook().getType() == ENObjectType.LINKED ? (LinkedNotebook) args.getNotebook().getLinkedObject() : null;
+    }
 
-        NoteStoreClient client = factory.getNoteStoreClient();
-        if (args.getNotebook().getType() == ENObjectType.LINKED) {
-            // args.getNotebook().getLinkedObject() should NOT be null
-            client = factory.getLinkedNoteStoreClient((LinkedNotebook) args.getNotebook().getLinkedObject());
+    /*
+     * The first page tells how many notes there are, the other pages are then
+     * fetched concurrently, each call with a client of its own, and put together
+     * in order. The listener is told of the pages in order as well, so the
+     * notes are named as toNoteMap names them. A note moved from one page to
+     * another meanwhile is only listed once.
+     */
+    private List<NoteMetadata> findAllNotesMetadata(final LinkedNotebook linkedNotebook, final NoteFilter filter, final NotesMetadataResultSpec resultSpec, final int maxNotes, final NotesListener listener) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        NotesMetadataList first = findNotesMetadata(linkedNotebook, filter, resultSpec, 0, Math.min(com.evernote.edam.limits.Constants.EDAM_USER_NOTES_MAX, maxNotes));
+
+        // the server may return less than asked for, which is then the page size
+        int pageSize = first.getNotesSize();
+        int totalNotes = Math.min(first.getTotalNotes(), maxNotes);
+        List<Future<NotesMetadataList>> futures = ListUtil.list();
+        CompletionService<NotesMetadataList> pages = new ExecutorCompletionService<NotesMetadataList>(notePageExecutor);
+        for (int offset = pageSize; pageSize > 0 && offset < totalNotes; offset += pageSize) {
+            final int pageOffset = offset;
+            final int pageLength = Math.min(pageSize, totalNotes - offset);
+            futures.add(pages.submit(new Callable<NotesMetadataList>() {
+                @Override
+                public NotesMetadataList call() throws Exception {
+                    return findNotesMetadata(linkedNotebook, filter, resultSpec, pageOffset, pageLength);
+                }
+            }));
         }
 
         List<NoteMetadata> noteList = ListUtil.list();
-        int offset = 0, pageSize = com.evernote.edam.limits.Constants.EDAM_USER_NOTES_MAX;
-        NotesMetadataList notesMetadataList = null;
-        do {
-            notesMetadataList = client.findNotesMetadata(filter, offset, pageSize, resultSpec);
-            noteList.addAll(notesMetadataList.getNotes());
-            offset = offset + notesMetadataList.getNotesSize();
-        } while (notesMetadataList != null && offset < notesMetadataList.getTotalNotes());
+        Set<String> guids = new HashSet<String>();
+        Map<String, ENNote> named = MapUtil.map();
+        addPage(first, noteList, guids, named, listener);
 
-        Map<String, ENNote> map = MapUtil.map();
-        for (NoteMetadata n : noteList) {
-            if (map.containsKey(n.getTitle())) {
-                map.put(n.getTitle() + ConstantsUtil.LEFT_PARENTHESIS + n.getGuid() + ConstantsUtil.RIGHT_PARENTHESIS, ENNoteImpl.forNameAndGuid(n.getTitle(), n.getGuid()));
-            } else {
-                map.put(n.getTitle(), ENNoteImpl.forNameAndGuid(n.getTitle(), n.getGuid()));
+        NotesMetadataList[] done = new NotesMetadataList[futures.size()];
+        int added = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<NotesMetadataList> future = pages.take();
+                done[futures.indexOf(future)] = future.get();
+                for (; added < done.length && done[added] != null; added++) {
+                    addPage(done[added], noteList, guids, named, listener);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            // nothing left to wait for once a page failed
+            for (Future<NotesMetadataList> future : futures) {
+                future.cancel(true);
             }
         }
-        return map;
+        return noteList;
+    }
+
+    private NotesMetadataList findNotesMetadata(final LinkedNotebook linkedNotebook, final NoteFilter filter, final NotesMetadataResultSpec resultSpec, final int offset, final int maxNotes) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        return factory.execute(linkedNotebook, new NoteStoreCall<NotesMetadataList>() {
+            @Override
+            public NotesMetadataList call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.findNotesMetadata(filter, offset, maxNotes, resultSpec);
+            }
+        });
+    }
+
+    private NotesMetadataList findNotesMetadataPage(final LinkedNotebook linkedNotebook, final NoteFilter filter, final NotesMetadataResultSpec resultSpec, final int offset, final int maxNotes) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        try {
+            return findNotesMetadata(linkedNotebook, filter, resultSpec, offset, maxNotes);
+        } catch (EDAMUserException e) {
+            if (!factory.evictIfAuthExpired(linkedNotebook, e)) {
+                throw e;
+            }
+            return findNotesMetadata(linkedNotebook, filter, resultSpec, offset, maxNotes);
+        }
+    }
+
+    private void addPage(final NotesMetadataList page, final List<NoteMetadata> noteList, final Set<String> guids, final Map<String, ENNote> named, final NotesListener listener) {
+        List<NoteMetadata> notes = ListUtil.list();
+        for (NoteMetadata n : page.getNotes()) {
+            if (guids.add(n.getGuid())) {
+                notes.add(n);
+            }
+        }
+        noteList.addAll(notes);
+        if (listener != null && !notes.isEmpty()) {
+            listener.notesFound(addToNoteMap(named, notes));
+        }
+    }
+
+    /**
+     * Resolve the shared notebooks of the linked notebooks concurrently, each
+     * linked notebook may live on a different shard. The result is in the
+     * same order as the given linked notebooks, with null for those timed out
+     * or failed, so one unreachable shard or revoked share does not take the
+     * others down. Only a rejected authentication of the user's own token
+     * fails the whole list, as it fails everything else too.
+     */
+    private List<SharedNotebook> getSharedNotebooks(final List<LinkedNotebook> linkedNotebooks) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        List<SharedNotebookTask> tasks = ListUtil.list();
+        for (LinkedNotebook linkedNotebook : linkedNotebooks) {
+            tasks.add(new SharedNotebookTask(linkedNotebook));
+        }
+
+        List<Future<SharedNotebook>> futures;
+        try {
+            futures = linkedNotebookExecutor.invokeAll(tasks, Constants.LINKED_NOTEBOOK_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TException(e);
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            if (futures.get(i).isCancelled()) {
+                tasks.get(i).abort();
+            }
+        }
+
+        List<SharedNotebook> sharedNotebooks = ListUtil.list();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                sharedNotebooks.add(futures.get(i).get());
+            } catch (CancellationException e) {
+                LogUtil.logWarning(Messages.bind(Messages.Plugin_Error_LinkedNotebookTimeout, linkedNotebooks.get(i).getShareName()));
+                sharedNotebooks.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TException(e);
+            } catch (ExecutionException e) {
+                if (!tasks.get(i).ownAuthPassed && ClientHealth.isAuthFailure(e.getCause())) {
+                    throw unwrap(e);
+                }
+                LogUtil.logWarning(Messages.bind(Messages.Plugin_Error_LinkedNotebookFailed, linkedNotebooks.get(i).getShareName()), e.getCause());
+                sharedNotebooks.add(null);
+            }
+        }
+        return sharedNotebooks;
+    }
+
+    /*
+     * Throw what a task failed with as it is, or return it as a TException to
+     * be thrown.
+     */
+    private static TException unwrap(final ExecutionException e) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException {
+        Throwable cause = e.getCause();
+        if (cause instanceof EDAMUserException) {
+            throw (EDAMUserException) cause;
+        } else if (cause instanceof EDAMSystemException) {
+            throw (EDAMSystemException) cause;
+        } else if (cause instanceof EDAMNotFoundException) {
+            throw (EDAMNotFoundException) cause;
+        } else if (cause instanceof TException) {
+            return (TException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new TException(cause);
+    }
+
+    /*
+     * Resolve the shared notebook of a linked notebook. Authenticating to the
+     * shared notebook is done with the user's own token, the lookup itself
+     * with the token of the share, so the task remembers whether the former
+     * has passed to tell whose authentication a failure is about.
+     */
+    private class SharedNotebookTask implements Callable<SharedNotebook> {
+
+        private final LinkedNotebook linkedNotebook;
+        private volatile boolean ownAuthPassed;
+        private volatile Thread runner;
+
+        public SharedNotebookTask(final LinkedNotebook linkedNotebook) {
+            this.linkedNotebook = linkedNotebook;
+        }
+
+        @Override
+        public SharedNotebook call() throws Exception {
+            runner = Thread.currentThread();
+            try {
+                authenticate();
+                try {
+                    return getSharedNotebookByAuth(linkedNotebook);
+                } catch (EDAMUserException e) {
+                    if (!factory.evictIfAuthExpired(linkedNotebook, e)) {
+                        throw e;
+                    }
+                    authenticate();
+                    return getSharedNotebookByAuth(linkedNotebook);
+                }
+            } finally {
+                runner = null;
+            }
+        }
+
+        /*
+         * Abort the call a timed out task is still waiting for, a blocking
+         * read on a socket does not notice the interruption.
+         */
+        public void abort() {
+            Thread thread = runner;
+            if (thread != null) {
+                KeepAliveHttpClient.abort(thread);
+            }
+        }
+
+        private void authenticate() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+            ownAuthPassed = false;
+            factory.authenticate(linkedNotebook);
+            ownAuthPassed = true;
+        }
+
+    }
+
+    private SharedNotebook getSharedNotebookByAuth(final LinkedNotebook linkedNotebook) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        return factory.execute(linkedNotebook, new NoteStoreCall<SharedNotebook>() {
+            @Override
+            public SharedNotebook call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+                return client.getSharedNotebookByAuth();
+            }
+        });
     }
 
     /**
@@ -161,8 +828,18 @@ public class EeClipperImpl extends EeClipper {
      * @return The user's all tags.
      */
     @Override
-    public List<String> listTags() throws EDAMUserException, EDAMSystemException, TException {
-        return ListUtil.toStringList(factory.getNoteStoreClient().listTags(), new ListStringizer() {
+    public List<String> listTags() throws Exception {
+        return ListUtil.toList(metadataCache.get(MetadataCache.TAGS, observed(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return loadTags();
+            }
+        })));
+    }
+
+    private List<String> loadTags() throws EDAMUserException, EDAMSystemException, EDAMNotFoundException, TException {
+        accountSync.syncMetadata();
+        return ListUtil.toStringList(accountSync.getTags(), new ListStringizer() {
             @Override
             public String element(final Object o) {
                 return ((Tag) o).getName();
@@ -170,6 +847,18 @@ public class EeClipperImpl extends EeClipper {
         });
     }
 
+    @Override
+    public void invalidateMetadata() {
+        metadataCache.invalidateAll();
+    }
+
+    /**
+     * Whether this clipper is still of use, i.e. its token is accepted.
+     * Evernote being out of reach does not make it invalid, its caches,
+     * pools and outbox wait for Evernote to come back. Evernote is only probed
+     * after nothing has been sent to it for a while; otherwise the outcome of
+     * the latest calls is trusted.
+     */
     @Override
     public boolean isValid() {
         if (!super.isValid()) {
@@ -178,21 +867,20 @@ public class EeClipperImpl extends EeClipper {
         if (factory == null) {
             return false;
         }
-        try {
-            factory.getNoteStoreClient().getDefaultNotebook();
-        } catch (Throwable e) {
-            if (e instanceof TTransportException) {
-                return false;
-            }
-            /*
-             * // As new StoreClientFactory(token); will not identify
-             * auth-expired exception, so the following code is not needed. if
-             * (e instanceof EDAMUserException) { if (((EDAMUserException)
-             * e).getErrorCode() == EDAMErrorCode.AUTH_EXPIRED) { return false;
-             * } }
-             */
-        }
-        return true;
+        if (health.shouldProbe()) {
+            try {
+                factory.execute(null, new NoteStoreCall<SyncState>() {
+                    @Override
+                    public SyncState call(final NoteStoreClient client) throws EDAMUserException, EDAMSystemException, TException {
+                        return client.getSyncState();
+                    }
+                });
+                health.reached();
+            } catch (Throwable e) {
+                health.failed(e);
+            }
+        }
+        return !health.isAuthRejected();
     }
 
 }
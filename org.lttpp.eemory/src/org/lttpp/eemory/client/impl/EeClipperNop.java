@@ -4,6 +4,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.lttpp.eemory.client.EeClipper;
+import org.lttpp.eemory.client.NotePages;
+import org.lttpp.eemory.client.NotesListener;
 import org.lttpp.eemory.client.model.ENNote;
 import org.lttpp.eemory.client.model.ENObject;
 import org.lttpp.eemory.util.ListUtil;
@@ -21,13 +23,33 @@ public class EeClipperNop extends EeClipper {
 
     }
 
+    @Override
+    public void clipBatch(final List<ENNote> args) {
+
+    }
+
     @Override
     public Map<String, ENObject> listNotebooks() {
         return MapUtil.map();
     }
 
     @Override
-    public Map<String, ENNote> listNotesWithinNotebook(final ENNote args) {
+    public Map<String, ENNote> listNotesWithinNotebook(final ENNote args, final NotesListener listener) {
+        return MapUtil.map();
+    }
+
+    @Override
+    public NotePages pageNotesWithinNotebook(final ENNote args) {
+        return new NotePages() {
+            @Override
+            public List<ENNote> next() {
+                return ListUtil.list();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, ENNote> findNotesWithinNotebook(final ENNote args, final int maxNotes) {
         return MapUtil.map();
     }
 
@@ -1,5 +1,6 @@
 package org.lttpp.eemory.dom;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -402,4 +403,23 @@ public interface Node {
      */
     public boolean isEqualNode(Node other);
 
+    /**
+     * Write the markup of this node and its descendants to the given output
+     * in one pass, the same as {@code toString()} returns.
+     *
+     * @param out
+     *            The output to write to
+     * @throws IOException
+     *             if the output fails
+     */
+    public void writeMarkup(Appendable out) throws IOException;
+
+    /**
+     * The length of the markup of this node and its descendants, to size the
+     * output of {@link #writeMarkup(Appendable)} with up front.
+     *
+     * @return The length of the markup
+     */
+    public int getMarkupLength();
+
 }
@@ -1,5 +1,7 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.dom.Attribute;
 import org.lttpp.eemory.dom.Element;
@@ -82,8 +84,13 @@ public class AttributeImpl extends NodeImpl implements Attribute {
     }
 
     @Override
-    public String toString() {
-        return getName() + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + getValue() + ConstantsUtil.DOUBLE_QUOTE;
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(getName()).append(ConstantsUtil.EQUAL).append(ConstantsUtil.DOUBLE_QUOTE).append(getValue()).append(ConstantsUtil.DOUBLE_QUOTE);
+    }
+
+    @Override
+    public int getMarkupLength() {
+        return String.valueOf(getName()).length() + ConstantsUtil.EQUAL.length() + 2 * ConstantsUtil.DOUBLE_QUOTE.length() + String.valueOf(getValue()).length();
     }
 
 }
@@ -1,5 +1,7 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.dom.DocumentFragment;
@@ -59,7 +61,13 @@ public class DocumentFragmentImpl extends NodeImpl implements DocumentFragment {
     }
 
     @Override
-    public String toString() {
-        return fragment;
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(fragment);
+    }
+
+    @Override
+    public int getMarkupLength() {
+        return String.valueOf(fragment).length();
     }
+
 }
@@ -1,5 +1,6 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -18,7 +19,6 @@ import org.lttpp.eemory.dom.Element;
 import org.lttpp.eemory.dom.Node;
 import org.lttpp.eemory.dom.Text;
 import org.lttpp.eemory.util.ConstantsUtil;
-import org.lttpp.eemory.util.DomUtil;
 import org.lttpp.eemory.util.ListUtil;
 
 public class DocumentImpl extends NodeImpl implements Document {
@@ -205,26 +205,37 @@ public class DocumentImpl extends NodeImpl implements Document {
         normalize();
     }
 
+    /*
+     * The XML declaration, then the doctype, then the others.
+     */
     @Override
-    public String toString() {
-        String standalone = this.standalone ? StringUtils.EMPTY : StringUtils.SPACE + Constants.STANDALONE + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + Constants.NO + ConstantsUtil.DOUBLE_QUOTE;
-        String head = ConstantsUtil.LEFT_ANGLE_BRACKET + ConstantsUtil.QUESTION_MARK + Constants.XML + StringUtils.SPACE + Constants.VERSION + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + xmlVersion + ConstantsUtil.DOUBLE_QUOTE + StringUtils.SPACE + Constants.ENCODING + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + encoding + ConstantsUtil.DOUBLE_QUOTE + standalone + ConstantsUtil.QUESTION_MARK + ConstantsUtil.RIGHT_ANGLE_BRACKET;
-
-        String body = StringUtils.EMPTY;
-        Node doctype = null;
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(head());
+        Node doctype = getChildNodeByType(DOCUMENT_TYPE_NODE);
+        if (doctype != null) {
+            doctype.writeMarkup(out);
+        }
         for (Node child : getChildNodes()) {
-            if (child == null) {
-                continue;
+            if (child != null && child.getNodeType() != Node.DOCUMENT_TYPE_NODE) {
+                child.writeMarkup(out);
             }
-            if (child.getNodeType() == Node.DOCUMENT_TYPE_NODE) {
-                doctype = child;
-            } else {
-                body += child.toString();
+        }
+    }
+
+    @Override
+    public int getMarkupLength() {
+        int length = head().length();
+        for (Node child : getChildNodes()) {
+            if (child != null) {
+                length += child.getMarkupLength();
             }
         }
-        body = DomUtil.toString(doctype) + body;
+        return length;
+    }
 
-        return head + body;
+    private String head() {
+        String standalone = this.standalone ? StringUtils.EMPTY : StringUtils.SPACE + Constants.STANDALONE + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + Constants.NO + ConstantsUtil.DOUBLE_QUOTE;
+        return ConstantsUtil.LEFT_ANGLE_BRACKET + ConstantsUtil.QUESTION_MARK + Constants.XML + StringUtils.SPACE + Constants.VERSION + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + xmlVersion + ConstantsUtil.DOUBLE_QUOTE + StringUtils.SPACE + Constants.ENCODING + ConstantsUtil.EQUAL + ConstantsUtil.DOUBLE_QUOTE + encoding + ConstantsUtil.DOUBLE_QUOTE + standalone + ConstantsUtil.QUESTION_MARK + ConstantsUtil.RIGHT_ANGLE_BRACKET;
     }
 
 }
@@ -1,5 +1,7 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.dom.DocumentType;
@@ -62,7 +64,17 @@ public class DocumentTypeImpl extends NodeImpl implements DocumentType {
     }
 
     @Override
-    public String toString() {
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(markup());
+    }
+
+    @Override
+    public int getMarkupLength() {
+        return markup().length();
+    }
+
+    // short enough to build as a whole
+    private String markup() {
         if (StringUtils.isBlank(publicId)) {
             return ConstantsUtil.LEFT_ANGLE_BRACKET + ConstantsUtil.EXCLAMATION + Constants.ENML_DOCTYPE + StringUtils.SPACE + name + StringUtils.SPACE + Constants.ENML_DOCTYPE_SYSTEM + StringUtils.SPACE + ConstantsUtil.DOUBLE_QUOTE + systemId + ConstantsUtil.DOUBLE_QUOTE + ConstantsUtil.RIGHT_ANGLE_BRACKET;
         } else {
@@ -1,5 +1,6 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -12,7 +13,6 @@ import org.lttpp.eemory.dom.Document;
 import org.lttpp.eemory.dom.Node;
 import org.lttpp.eemory.dom.Text;
 import org.lttpp.eemory.util.ConstantsUtil;
-import org.lttpp.eemory.util.DomUtil;
 import org.lttpp.eemory.util.ListUtil;
 import org.lttpp.eemory.util.MapUtil;
 
@@ -360,18 +360,53 @@ public class NodeImpl implements Node, Cloneable {
     }
 
     @Override
-    public String toString() {
-        String string = ConstantsUtil.LEFT_ANGLE_BRACKET + getNodeName();
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(getNodeName());
+        for (Entry<String, Node> e : getAttributes().entrySet()) {
+            if (e.getValue() != null) {
+                out.append(StringUtils.SPACE);
+                e.getValue().writeMarkup(out);
+            }
+        }
+        out.append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
+        for (Node child : getChildNodes()) {
+            if (child != null) {
+                child.writeMarkup(out);
+            }
+        }
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(ConstantsUtil.SLASH).append(getNodeName()).append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
+    }
+
+    @Override
+    public int getMarkupLength() {
+        int length = 2 * (ConstantsUtil.LEFT_ANGLE_BRACKET.length() + String.valueOf(getNodeName()).length() + ConstantsUtil.RIGHT_ANGLE_BRACKET.length()) + ConstantsUtil.SLASH.length();
         for (Entry<String, Node> e : getAttributes().entrySet()) {
-            String tempStr = DomUtil.toString(e.getValue());
-            string += !StringUtils.isEmpty(tempStr) ? StringUtils.SPACE + tempStr : tempStr;
+            if (e.getValue() != null) {
+                length += StringUtils.SPACE.length() + e.getValue().getMarkupLength();
+            }
         }
-        string += ConstantsUtil.RIGHT_ANGLE_BRACKET;
         for (Node child : getChildNodes()) {
-            string += DomUtil.toString(child);
+            if (child != null) {
+                length += child.getMarkupLength();
+            }
+        }
+        return length;
+    }
+
+    /*
+     * Written once into a buffer of the right size, rather than concatenated
+     * node by node, which copies the markup over and over for a large
+     * document.
+     */
+    @Override
+    public String toString() {
+        StringBuilder markup = new StringBuilder(getMarkupLength());
+        try {
+            writeMarkup(markup);
+        } catch (IOException e) {
+            // could not happen, StringBuilder does not throw
         }
-        string += ConstantsUtil.LEFT_ANGLE_BRACKET + ConstantsUtil.SLASH + getNodeName() + ConstantsUtil.RIGHT_ANGLE_BRACKET;
-        return string;
+        return markup.toString();
     }
 
 }
@@ -1,5 +1,7 @@
 package org.lttpp.eemory.dom.impl;
 
+import java.io.IOException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.Messages;
@@ -85,8 +87,13 @@ public class TextImpl extends NodeImpl implements Text {
     }
 
     @Override
-    public String toString() {
-        return text;
+    public void writeMarkup(final Appendable out) throws IOException {
+        out.append(text);
+    }
+
+    @Override
+    public int getMarkupLength() {
+        return String.valueOf(text).length();
     }
 
 }
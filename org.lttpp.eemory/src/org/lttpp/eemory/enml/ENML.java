@@ -7,43 +7,28 @@ import static org.lttpp.eemory.Constants.ENML_ATTR_HASH;
 import static org.lttpp.eemory.Constants.ENML_ATTR_STYLE;
 import static org.lttpp.eemory.Constants.ENML_ATTR_TYPE;
 import static org.lttpp.eemory.Constants.ENML_DOCTYPE_DECLARATION_SYSTEM_ID;
-import static org.lttpp.eemory.Constants.ENML_DTD;
-import static org.lttpp.eemory.Constants.ENML_DTD_LOCATION;
 import static org.lttpp.eemory.Constants.ENML_TAG_BOLD;
 import static org.lttpp.eemory.Constants.ENML_TAG_BR;
 import static org.lttpp.eemory.Constants.ENML_TAG_DIV;
 import static org.lttpp.eemory.Constants.ENML_TAG_EN_MEDIA;
 import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE;
-import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE_SELF_CLOSING_REGEX;
-import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE_SELF_CLOSING_REPLACEMENT;
-import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE_START_REGEX;
-import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE_START_REPLACEMENT_P1;
 import static org.lttpp.eemory.Constants.ENML_TAG_ITALIC;
 import static org.lttpp.eemory.Constants.ENML_TAG_SPAN;
 import static org.lttpp.eemory.Constants.ENML_VALUE_FONT_SIZE;
 import static org.lttpp.eemory.Constants.ENML_VALUE_PT;
-import static org.lttpp.eemory.Constants.XHTML_1_0_LATIN_1_ENT;
-import static org.lttpp.eemory.Constants.XHTML_1_0_LATIN_1_ENT_LOCATION;
-import static org.lttpp.eemory.Constants.XHTML_1_0_SPECIAL_ENT;
-import static org.lttpp.eemory.Constants.XHTML_1_0_SPECIAL_ENT_LOCATION;
-import static org.lttpp.eemory.Constants.XHTML_1_0_SYMBOL_ENT;
-import static org.lttpp.eemory.Constants.XHTML_1_0_SYMBOL_ENT_LOCATION;
 import static org.lttpp.eemory.Constants.XML_VERSION_1_0;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
-import java.util.regex.Matcher;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.lang3.CharEncoding;
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.dom.DOMException;
 import org.lttpp.eemory.dom.Document;
+import org.lttpp.eemory.dom.DocumentFragment;
 import org.lttpp.eemory.dom.Element;
 import org.lttpp.eemory.dom.Node;
 import org.lttpp.eemory.util.ConstantsUtil;
@@ -51,23 +36,25 @@ import org.lttpp.eemory.util.DomUtil;
 import org.lttpp.eemory.util.ListUtil;
 import org.lttpp.eemory.util.LogUtil;
 import org.lttpp.eemory.util.StringEscapeUtil;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.XMLReader;
 
 public class ENML {
 
+    // markup around a line or a run, besides the text of it
+    private static final int STYLE_TEXT_MARKUP_LENGTH = 96;
+    private static final String EN_NOTE_START_TAG = ConstantsUtil.LEFT_ANGLE_BRACKET + ENML_TAG_EN_NOTE;
+    private static final String EN_NOTE_END_TAG = ConstantsUtil.LEFT_ANGLE_BRACKET + ConstantsUtil.SLASH + ENML_TAG_EN_NOTE;
+
     // used to create new note
     private final Document document;
     private Node root;
     // used for updating existing note
     private String existingEnml = StringUtils.EMPTY;
     private final List<Node> newAddedNodes;
+    private final StringBuilder newAddedContent = new StringBuilder();
 
     private int tabWidth;
+    private ENMLValidation validation = ENMLValidation.getDefault();
 
     public ENML() throws DOMException, ParserConfigurationException {
         document = DomUtil.getBuilder().newDocument();
@@ -101,6 +88,19 @@ public class ENML {
         this.tabWidth = tabWidth;
     }
 
+    public ENMLValidation getValidation() {
+        return validation;
+    }
+
+    /**
+     * Set how much of the note {@link #get()} validates, see
+     * {@link ENMLValidation}. A new note is all content added, so
+     * {@link ENMLValidation#FRAGMENT} validates all of it.
+     */
+    public void setValidation(final ENMLValidation validation) {
+        this.validation = validation;
+    }
+
     public void addResource(final String hashHex, final String mimeType) throws DOMException, ParserConfigurationException {
         if (StringUtils.isNotBlank(hashHex)) {
             Element div = div();
@@ -117,9 +117,73 @@ public class ENML {
         }
     }
 
+    /**
+     * Add the styled lines, written straight into markup, see
+     * {@link #writeContent(List, Appendable)}.
+     *
+     * @param content
+     *            the lines, each a list of styled runs
+     */
     public void addContent(final List<List<StyleText>> content) throws DOMException, ParserConfigurationException {
-        List<Node> list = parseStyleText(content);
-        newAddedNodes.addAll(list);
+        int length = 0;
+        for (List<StyleText> line : content) {
+            length += STYLE_TEXT_MARKUP_LENGTH;
+            for (StyleText styleText : line) {
+                length += STYLE_TEXT_MARKUP_LENGTH + StringUtils.length(styleText.getText());
+            }
+        }
+        StringBuilder markup = new StringBuilder(length);
+        try {
+            writeContent(content, markup);
+        } catch (IOException e) {
+            // could not happen, StringBuilder does not throw
+        }
+        DocumentFragment fragment = document.createDocumentFragment();
+        fragment.setTextContent(markup.toString());
+        newAddedNodes.add(fragment);
+    }
+
+    /**
+     * Write the styled lines as ENML to the given output, a div per line, and
+     * a font, a span and b or i per run, without building them as nodes
+     * first. The markup is the same as the nodes would serialize to.
+     *
+     * @param content
+     *            the lines, each a list of styled runs
+     * @param out
+     *            the output to write to
+     * @throws IOException
+     *             if the output fails
+     */
+    public void writeContent(final List<List<StyleText>> content, final Appendable out) throws IOException {
+        for (List<StyleText> line : content) {
+            start(out, ENML_TAG_DIV);
+            for (StyleText styleText : line) {
+                writeStyleText(styleText, out);
+            }
+            end(out, ENML_TAG_DIV);
+        }
+    }
+
+    /**
+     * Add the content of the ENML of a new note, e.g. a clip prepared as a
+     * new note while Evernote could not be reached, to be prepended to the
+     * existing note along with the other content added. The content of
+     * several notes is separated like the content of successive updates.
+     *
+     * @param enml
+     *            ENML of a new note
+     */
+    public void addNoteContent(final String enml) throws DOMException, ParserConfigurationException {
+        if (newAddedContent.length() > 0) {
+            newAddedContent.append(DomUtil.toString(separator()));
+        }
+        // a self-closing en-note holds nothing
+        int start = startTagEnd(enml);
+        int end = enml.lastIndexOf(EN_NOTE_END_TAG);
+        if (start >= 0 && !isSelfClosing(enml, start) && end > start) {
+            newAddedContent.append(enml, start + 1, end);
+        }
     }
 
     /**
@@ -136,27 +200,65 @@ public class ENML {
                 root.appendChild(n);
             }
             String newEnml = DomUtil.toString(document);
-            validateENML(newEnml);
+            if (validation != ENMLValidation.NONE) {
+                validateENML(newEnml);
+            }
             LogUtil.debug(newEnml);
             return newEnml;
         } else {
-            if (!ListUtil.isNullOrEmptyList(newAddedNodes)) {
-                Element div = div();
-                div.appendChild(br());
-                newAddedNodes.add(div);
+            if (newAddedContent.length() > 0 || !ListUtil.isNullOrEmptyList(newAddedNodes)) {
+                newAddedNodes.add(separator());
             }
 
-            // open self-closing en-note tag <en-note ... /> to <en-note ... ></en-note> for following processing
-            existingEnml = StringUtils.replacePattern(existingEnml, ENML_TAG_EN_NOTE_SELF_CLOSING_REGEX, ENML_TAG_EN_NOTE_SELF_CLOSING_REPLACEMENT);
-            // insert new nodes
-            existingEnml = StringUtils.replacePattern(existingEnml, ENML_TAG_EN_NOTE_START_REGEX, ENML_TAG_EN_NOTE_START_REPLACEMENT_P1 + Matcher.quoteReplacement(DomUtil.toString(newAddedNodes)));
+            // insert new nodes right after the start tag of en-note, in one pass
+            int end = startTagEnd(existingEnml);
+            if (end < 0) {
+                // nothing to insert into, let validation tell what the note is
+                validateENML(existingEnml);
+                return existingEnml;
+            }
+            int length = newAddedContent.length();
+            for (Node n : newAddedNodes) {
+                length += n.getMarkupLength();
+            }
+            StringBuilder enml = new StringBuilder(existingEnml.length() + length + EN_NOTE_END_TAG.length() + 1);
+            boolean selfClosing = isSelfClosing(existingEnml, end);
+            // open self-closing en-note tag <en-note ... /> to <en-note ... ></en-note>
+            enml.append(existingEnml, 0, selfClosing ? end - 1 : end).append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
+            int addedStart = enml.length();
+            enml.append(newAddedContent);
+            DomUtil.write(newAddedNodes, enml);
+            int addedEnd = enml.length();
+            if (selfClosing) {
+                enml.append(EN_NOTE_END_TAG).append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
+            }
+            enml.append(existingEnml, end + 1, existingEnml.length());
+            existingEnml = enml.toString();
 
-            validateENML(existingEnml);
+            if (validation == ENMLValidation.FULL) {
+                validateENML(existingEnml);
+            } else if (validation == ENMLValidation.FRAGMENT) {
+                ENMLValidator.getDefault().validateFragment(enml.substring(addedStart, addedEnd));
+            }
             LogUtil.debug(existingEnml);
             return existingEnml;
         }
     }
 
+    /*
+     * Index of the > which ends the start tag of en-note, -1 if there is
+     * none. Assume > does not appear in the value for the attributes, and the
+     * XML is valid.
+     */
+    private static int startTagEnd(final String enml) {
+        int start = enml.indexOf(EN_NOTE_START_TAG);
+        return start >= 0 ? enml.indexOf(ConstantsUtil.RIGHT_ANGLE_BRACKET, start + EN_NOTE_START_TAG.length()) : -1;
+    }
+
+    private static boolean isSelfClosing(final String enml, final int startTagEnd) {
+        return enml.charAt(startTagEnd - 1) == ConstantsUtil.SLASH.charAt(0);
+    }
+
     private boolean isCreateNew() {
         return document != null && root != null && StringUtils.isBlank(existingEnml);
     }
@@ -165,6 +267,12 @@ public class ENML {
         return document.createElement(ENML_TAG_DIV);
     }
 
+    private Element separator() throws DOMException, ParserConfigurationException {
+        Element div = div();
+        div.appendChild(br());
+        return div;
+    }
+
     private Element br() {
         return document.createElement(ENML_TAG_BR);
     }
@@ -177,75 +285,54 @@ public class ENML {
         return media;
     }
 
-    private List<Node> parseStyleText(final List<List<StyleText>> styleTextBlocks) throws DOMException, ParserConfigurationException {
-        List<Node> list = ListUtil.list();
-        for (List<StyleText> lineBlocks : styleTextBlocks) {
-            list.add(div(lineBlocks));
-        }
-        return list;
-    }
+    private void writeStyleText(final StyleText styleText, final Appendable out) throws IOException {
+        String text = StringEscapeUtil.escapeEnml(styleText.getText(), tabWidth);
+        FontStyle fontStyle = styleText.getFontStyle();
 
-    private Node div(final List<StyleText> styleTextBlocks) throws DOMException, ParserConfigurationException {
-        Element div = document.createElement(ENML_TAG_DIV);
-        for (StyleText styletext : styleTextBlocks) {
-            String escapedXml = StringEscapeUtil.escapeEnml(styletext.getText(), tabWidth);
-            div.appendChild(font(escapedXml, styletext.getFace(), styletext.getColorHexCode(), styletext.getSize(), styletext.getFontStyle()));
-        }
-        return div;
-    }
-
-    private Node font(final String text, final String face, final String color, final String size, final FontStyle fontStyle) throws DOMException, ParserConfigurationException {
-        Element font = document.createElement(ENML_ATTR_FONT);
-        font.appendChild(span(text, size, fontStyle));
-        font.setAttribute(ENML_ATTR_FACE, face);
-        font.setAttribute(ENML_ATTR_COLOR, color);
-        //font.setAttribute(ENML_ATTR_SIZE, String.valueOf(2));// does not work if style="font-size:xxpt" of span set
-        return font;
-    }
+        // attributes in the order the nodes wrote them
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(ENML_ATTR_FONT);
+        attribute(out, ENML_ATTR_FACE, styleText.getFace());
+        attribute(out, ENML_ATTR_COLOR, styleText.getColorHexCode());
+        out.append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
+        //font size attribute does not work if style="font-size:xxpt" of span set
 
-    private Node span(final String text, final String size, final FontStyle fontStyle) throws DOMException, ParserConfigurationException {
-        Element span = document.createElement(ENML_TAG_SPAN);
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(ENML_TAG_SPAN);
+        attribute(out, ENML_ATTR_STYLE, ENML_VALUE_FONT_SIZE + styleText.getSize() + ENML_VALUE_PT);
+        out.append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
         if (StringUtils.isEmpty(text)) {
-            span.appendChild(br());
-        } else {
-            if (fontStyle == FontStyle.BOLD) {
-                span.appendChild(b(text));
-            } else if (fontStyle == FontStyle.ITALIC) {
-                span.appendChild(i(text));
-            } else if (fontStyle == FontStyle.NORMAL) {
-                span.appendChild(text(text));
-            } else if (fontStyle == FontStyle.BOLD_ITALIC) {
-                span.appendChild(bi(text));
-            }
+            start(out, ENML_TAG_BR);
+            end(out, ENML_TAG_BR);
+        } else if (fontStyle == FontStyle.BOLD) {
+            start(out, ENML_TAG_BOLD);
+            out.append(text);
+            end(out, ENML_TAG_BOLD);
+        } else if (fontStyle == FontStyle.ITALIC) {
+            start(out, ENML_TAG_ITALIC);
+            out.append(text);
+            end(out, ENML_TAG_ITALIC);
+        } else if (fontStyle == FontStyle.NORMAL) {
+            out.append(text);
+        } else if (fontStyle == FontStyle.BOLD_ITALIC) {
+            start(out, ENML_TAG_BOLD);
+            start(out, ENML_TAG_ITALIC);
+            out.append(text);
+            end(out, ENML_TAG_ITALIC);
+            end(out, ENML_TAG_BOLD);
         }
-        span.setAttribute(ENML_ATTR_STYLE, ENML_VALUE_FONT_SIZE + size + ENML_VALUE_PT);
-        return span;
+        end(out, ENML_TAG_SPAN);
+        end(out, ENML_ATTR_FONT);
     }
 
-    private Node b(final String text) throws DOMException, ParserConfigurationException {
-        Node b = document.createElement(ENML_TAG_BOLD);
-        b.setTextContent(text);
-        return b;
+    private static void start(final Appendable out, final String tag) throws IOException {
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(tag).append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
     }
 
-    private Node i(final String text) throws DOMException, ParserConfigurationException {
-        Node i = document.createElement(ENML_TAG_ITALIC);
-        i.setTextContent(text);
-        return i;
+    private static void end(final Appendable out, final String tag) throws IOException {
+        out.append(ConstantsUtil.LEFT_ANGLE_BRACKET).append(ConstantsUtil.SLASH).append(tag).append(ConstantsUtil.RIGHT_ANGLE_BRACKET);
     }
 
-    private Node bi(final String text) throws DOMException, ParserConfigurationException {
-        Node i = document.createElement(ENML_TAG_ITALIC);
-        i.setTextContent(text);
-
-        Node b = document.createElement(ENML_TAG_BOLD);
-        b.appendChild(i);
-
-        return b;
-    }
-
-    private Node text(final String text) throws DOMException, ParserConfigurationException {
-        return document.createTextNode(text);
+    private static void attribute(final Appendable out, final String name, final String value) throws IOException {
+        out.append(StringUtils.SPACE).append(name).append(ConstantsUtil.EQUAL).append(ConstantsUtil.DOUBLE_QUOTE).append(value).append(ConstantsUtil.DOUBLE_QUOTE);
     }
 
     /**
@@ -258,46 +345,7 @@ public class ENML {
      * @throws IOException
      */
     public static void validateENML(final String enml) throws ParserConfigurationException, SAXException, IOException {
-        SAXParserFactory factory = SAXParserFactory.newInstance();
-        factory.setValidating(true);
-        SAXParser parser = factory.newSAXParser();
-        XMLReader reader = parser.getXMLReader();
-        reader.setEntityResolver(new EntityResolver() {
-            @Override
-            public InputSource resolveEntity(final String publicId, final String systemId) throws SAXException, IOException {
-                if (systemId.endsWith(ENML_DTD)) {
-                    return new InputSource(getClass().getResourceAsStream(ENML_DTD_LOCATION));
-                } else if (systemId.endsWith(XHTML_1_0_LATIN_1_ENT)) {
-                    return new InputSource(getClass().getResourceAsStream(XHTML_1_0_LATIN_1_ENT_LOCATION));
-                } else if (systemId.endsWith(XHTML_1_0_SYMBOL_ENT)) {
-                    return new InputSource(getClass().getResourceAsStream(XHTML_1_0_SYMBOL_ENT_LOCATION));
-                } else if (systemId.endsWith(XHTML_1_0_SPECIAL_ENT)) {
-                    return new InputSource(getClass().getResourceAsStream(XHTML_1_0_SPECIAL_ENT_LOCATION));
-                } else {
-                    return null;
-                }
-            }
-        });
-        reader.setErrorHandler(new ErrorHandler() {
-            @Override
-            public void warning(final SAXParseException exception) throws SAXException {
-                LogUtil.logWarning(enml);
-                throw exception;
-            }
-
-            @Override
-            public void fatalError(final SAXParseException exception) throws SAXException {
-                LogUtil.logError(enml);
-                throw exception;
-            }
-
-            @Override
-            public void error(final SAXParseException exception) throws SAXException {
-                LogUtil.logError(enml);
-                throw exception;
-            }
-        });
-        reader.parse(new InputSource(new ByteArrayInputStream(enml.getBytes(CharEncoding.UTF_8))));
+        ENMLValidator.getDefault().validate(enml);
     }
 
 }
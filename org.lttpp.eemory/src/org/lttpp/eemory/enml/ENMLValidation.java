@@ -0,0 +1,37 @@
+package org.lttpp.eemory.enml;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.lttpp.eemory.Constants;
+
+/**
+ * How much of the ENML of a note is validated before it is sent to Evernote.
+ */
+public enum ENMLValidation {
+
+    /**
+     * The whole note, the existing content along with the content added.
+     */
+    FULL,
+
+    /**
+     * Only the content added, in a note of its own. The existing content was
+     * accepted by Evernote before and is trusted.
+     */
+    FRAGMENT,
+
+    /**
+     * Nothing, for content which is valid by construction.
+     */
+    NONE;
+
+    /**
+     * The level set by the system property
+     * {@link Constants#PLUGIN_ENML_VALIDATION}, {@link #FRAGMENT} if it is
+     * not set or not a level.
+     */
+    public static ENMLValidation getDefault() {
+        ENMLValidation validation = EnumUtils.getEnum(ENMLValidation.class, System.getProperty(Constants.PLUGIN_ENML_VALIDATION));
+        return validation != null ? validation : FRAGMENT;
+    }
+
+}
@@ -0,0 +1,557 @@
+package org.lttpp.eemory.enml;
+
+import static org.lttpp.eemory.Constants.ENML_DOCTYPE_DECLARATION_SYSTEM_ID;
+import static org.lttpp.eemory.Constants.ENML_DTD;
+import static org.lttpp.eemory.Constants.ENML_DTD_LOCATION;
+import static org.lttpp.eemory.Constants.ENML_TAG_EN_NOTE;
+import static org.lttpp.eemory.Constants.XHTML_1_0_LATIN_1_ENT;
+import static org.lttpp.eemory.Constants.XHTML_1_0_LATIN_1_ENT_LOCATION;
+import static org.lttpp.eemory.Constants.XHTML_1_0_SPECIAL_ENT;
+import static org.lttpp.eemory.Constants.XHTML_1_0_SPECIAL_ENT_LOCATION;
+import static org.lttpp.eemory.Constants.XHTML_1_0_SYMBOL_ENT;
+import static org.lttpp.eemory.Constants.XHTML_1_0_SYMBOL_ENT_LOCATION;
+import static org.lttpp.eemory.Constants.XML_VERSION_1_0;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.CharEncoding;
+import org.apache.commons.lang3.StringUtils;
+import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DeclHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Validates ENML against the bundled ENML DTD.
+ *
+ * The DTD and the XHTML entity files it includes are read from the bundle and
+ * compiled into a {@link Grammar} once per JVM: the content model and the
+ * attributes of each element type, and the character entities, flattened
+ * into a one-line internal subset. A document is then read by a
+ * non-validating reader, which is handed the internal subset in place of the
+ * DTD, so it reports undeclared entities itself, while the grammar checks the
+ * elements and attributes as they are read. This spares a validating parser
+ * reading and building the whole DTD again on every call, which costs far
+ * more than checking a clip.
+ *
+ * A document whose prolog is not the plain ENML one is left to a validating
+ * reader, as is every document if the DTD can not be compiled. Each thread
+ * keeps readers of its own, which are reused across calls.
+ */
+public class ENMLValidator {
+
+    private static final String DECLARATION_HANDLER = "http://xml.org/sax/properties/declaration-handler";
+    private static final String CDATA = "CDATA";
+    private static final String EMPTY = "EMPTY";
+    private static final String ANY = "ANY";
+    private static final String PCDATA = "#PCDATA";
+    private static final String REQUIRED = "#REQUIRED";
+    private static final String FIXED = "#FIXED";
+    private static final String PARAMETER_ENTITY_PREFIX = "%";
+    private static final String DOCTYPE_START = "<!DOCTYPE ";
+    private static final String FRAGMENT_START = "<?xml version=\"" + XML_VERSION_1_0 + "\" encoding=\"" + CharEncoding.UTF_8 + "\"?>" + DOCTYPE_START + ENML_TAG_EN_NOTE + " SYSTEM \"" + ENML_DOCTYPE_DECLARATION_SYSTEM_ID + "\"><" + ENML_TAG_EN_NOTE + ">";
+    private static final String FRAGMENT_END = "</" + ENML_TAG_EN_NOTE + ">";
+
+    // <?xml ...?> <!DOCTYPE name SYSTEM "..."> without an internal subset
+    private static final Pattern PROLOG = Pattern.compile("\\A(<\\?xml[^>]*\\?>)?\\s*<!DOCTYPE\\s+([^\\s>\\[]+)\\s+SYSTEM\\s+(\"[^\"]*\"|'[^']*')\\s*>");
+    private static final Pattern CONTENT_MODEL_TOKEN = Pattern.compile("[^\\s,|()?*+]+|[|()?*+]");
+
+    private static final ENMLValidator validator = new ENMLValidator();
+
+    // <System ID suffix, Content>
+    private final Map<String, byte[]> dtds = MapUtil.orderedMap();
+    private final Grammar grammar;
+
+    private final SAXParserFactory factory = SAXParserFactory.newInstance();
+    private final SAXParserFactory validatingFactory = SAXParserFactory.newInstance();
+    private final ThreadLocal<XMLReader> readers = new ThreadLocal<XMLReader>();
+    private final ThreadLocal<XMLReader> validatingReaders = new ThreadLocal<XMLReader>();
+
+    private final EntityResolver resolver = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(final String publicId, final String systemId) throws SAXException, IOException {
+            for (Entry<String, byte[]> dtd : dtds.entrySet()) {
+                if (systemId.endsWith(dtd.getKey())) {
+                    InputSource source = new InputSource(new ByteArrayInputStream(dtd.getValue()));
+                    source.setPublicId(publicId);
+                    source.setSystemId(systemId);
+                    return source;
+                }
+            }
+            return null;
+        }
+    };
+
+    private ENMLValidator() {
+        load(ENML_DTD, ENML_DTD_LOCATION);
+        load(XHTML_1_0_LATIN_1_ENT, XHTML_1_0_LATIN_1_ENT_LOCATION);
+        load(XHTML_1_0_SYMBOL_ENT, XHTML_1_0_SYMBOL_ENT_LOCATION);
+        load(XHTML_1_0_SPECIAL_ENT, XHTML_1_0_SPECIAL_ENT_LOCATION);
+        validatingFactory.setValidating(true);
+        grammar = compile();
+    }
+
+    public static ENMLValidator getDefault() {
+        return validator;
+    }
+
+    private void load(final String name, final String location) {
+        InputStream in = getClass().getResourceAsStream(location);
+        if (in == null) {
+            // left to the parser, which then fails to find it
+            return;
+        }
+        try {
+            dtds.put(name, IOUtils.toByteArray(in));
+        } catch (IOException e) {
+            LogUtil.logError(e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /*
+     * Read the declarations of the DTD, through an empty note. Null if they
+     * can not be read, or the grammar can not express them.
+     */
+    private Grammar compile() {
+        GrammarBuilder builder = new GrammarBuilder();
+        try {
+            XMLReader reader = factory.newSAXParser().getXMLReader();
+            reader.setEntityResolver(resolver);
+            reader.setProperty(DECLARATION_HANDLER, builder);
+            reader.parse(new InputSource(new StringReader(DOCTYPE_START + ENML_TAG_EN_NOTE + " SYSTEM \"" + ENML_DOCTYPE_DECLARATION_SYSTEM_ID + "\"><" + ENML_TAG_EN_NOTE + "/>")));
+            return builder.build();
+        } catch (Exception e) {
+            LogUtil.logWarning(e);
+            return null;
+        }
+    }
+
+    /**
+     * Validate ENML string.
+     *
+     * @param enml
+     *            ENML string to be validated
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public void validate(final String enml) throws ParserConfigurationException, SAXException, IOException {
+        Matcher prolog = PROLOG.matcher(enml);
+        if (grammar == null || !prolog.lookingAt() || !prolog.group(3).endsWith(ENML_DTD + prolog.group(3).charAt(0))) {
+            validateByDTD(enml);
+            return;
+        }
+
+        // the same document with the internal subset in place of the DTD, on the same line
+        String name = prolog.group(2);
+        StringBuilder document = new StringBuilder(enml.length() + grammar.entities.length());
+        document.append(StringUtils.defaultString(prolog.group(1))).append(DOCTYPE_START).append(name).append(" [").append(grammar.entities).append("]>");
+        document.append(enml, prolog.end(), enml.length());
+
+        XMLReader reader = reader(readers, factory);
+        ErrorHandler errorHandler = errorHandler(enml);
+        reader.setErrorHandler(errorHandler);
+        reader.setContentHandler(new DocumentValidator(grammar, name, errorHandler));
+        parse(reader, readers, new InputSource(new StringReader(document.toString())));
+    }
+
+    /**
+     * Validate the given content of en-note on its own, in a note which holds
+     * nothing else. The note it goes into is not looked at.
+     *
+     * @param content
+     *            ENML content of en-note to be validated
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public void validateFragment(final String content) throws ParserConfigurationException, SAXException, IOException {
+        StringBuilder enml = new StringBuilder(FRAGMENT_START.length() + content.length() + FRAGMENT_END.length());
+        enml.append(FRAGMENT_START).append(content).append(FRAGMENT_END);
+        validate(enml.toString());
+    }
+
+    private void validateByDTD(final String enml) throws ParserConfigurationException, SAXException, IOException {
+        XMLReader reader = reader(validatingReaders, validatingFactory);
+        reader.setErrorHandler(errorHandler(enml));
+        parse(reader, validatingReaders, new InputSource(new ByteArrayInputStream(enml.getBytes(CharEncoding.UTF_8))));
+    }
+
+    private void parse(final XMLReader reader, final ThreadLocal<XMLReader> readers, final InputSource source) throws SAXException, IOException {
+        try {
+            reader.parse(source);
+        } catch (SAXException | IOException | RuntimeException e) {
+            // do not reuse a reader left in the middle of a document
+            readers.remove();
+            throw e;
+        } finally {
+            reader.setErrorHandler(null);
+            reader.setContentHandler(null);
+        }
+    }
+
+    private XMLReader reader(final ThreadLocal<XMLReader> readers, final SAXParserFactory factory) throws ParserConfigurationException, SAXException {
+        XMLReader reader = readers.get();
+        if (reader == null) {
+            synchronized (factory) {
+                reader = factory.newSAXParser().getXMLReader();
+            }
+            reader.setEntityResolver(resolver);
+            readers.set(reader);
+        }
+        return reader;
+    }
+
+    private ErrorHandler errorHandler(final String enml) {
+        return new ErrorHandler() {
+            @Override
+            public void warning(final SAXParseException exception) throws SAXException {
+                LogUtil.logWarning(enml);
+                throw exception;
+            }
+
+            @Override
+            public void fatalError(final SAXParseException exception) throws SAXException {
+                LogUtil.logError(enml);
+                throw exception;
+            }
+
+            @Override
+            public void error(final SAXParseException exception) throws SAXException {
+                LogUtil.logError(enml);
+                throw exception;
+            }
+        };
+    }
+
+    /*
+     * The declarations of the DTD, as far as ENML needs them: element types
+     * of EMPTY, ANY, mixed or element content, attributes of CDATA or
+     * enumerated types, and internal general entities.
+     */
+    private static class Grammar {
+
+        // <Element Name, Element Type>
+        private final Map<String, ElementType> elements;
+        private final String entities;
+
+        public Grammar(final Map<String, ElementType> elements, final String entities) {
+            this.elements = elements;
+            this.entities = entities;
+        }
+
+    }
+
+    private static class ElementType {
+
+        private final String name;
+        private final String model;
+        private final Set<String> mixed; // children allowed among text, null if not mixed content
+        private final Pattern children; // over the names of the children each followed by a comma, null if not element content
+        // <Attribute Name, Attribute Type>
+        private final Map<String, AttributeType> attributes = MapUtil.map();
+        private final List<String> required = ListUtil.list();
+
+        public ElementType(final String name, final String model) {
+            this.name = name;
+            this.model = model;
+            if (EMPTY.equals(model) || ANY.equals(model)) {
+                mixed = null;
+                children = null;
+            } else if (model.startsWith("(" + PCDATA)) {
+                mixed = new HashSet<String>();
+                for (String child : StringUtils.split(StringUtils.removeEnd(model, "*").replaceAll("[()\\s]", StringUtils.EMPTY), "|")) {
+                    mixed.add(child);
+                }
+                mixed.remove(PCDATA);
+                children = null;
+            } else {
+                mixed = null;
+                children = toPattern(model);
+            }
+        }
+
+        /*
+         * (a, (b | c)*, d?) to (?:\Qa,\E)(?:(?:\Qb,\E)|(?:\Qc,\E))*(?:\Qd,\E)?
+         */
+        private static Pattern toPattern(final String model) {
+            StringBuilder regex = new StringBuilder();
+            Matcher token = CONTENT_MODEL_TOKEN.matcher(model);
+            while (token.find()) {
+                String t = token.group();
+                if (t.equals("(")) {
+                    regex.append("(?:");
+                } else if (t.length() == 1 && "|)?*+".contains(t)) {
+                    regex.append(t);
+                } else {
+                    regex.append("(?:").append(Pattern.quote(t + ConstantsUtil.COMMA)).append(")");
+                }
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+        public boolean isEmpty() {
+            return EMPTY.equals(model);
+        }
+
+        public boolean isAny() {
+            return ANY.equals(model);
+        }
+
+    }
+
+    private static class AttributeType {
+
+        private final Set<String> values; // null if CDATA
+        private final String fixed;
+
+        public AttributeType(final Set<String> values, final String fixed) {
+            this.values = values;
+            this.fixed = fixed;
+        }
+
+    }
+
+    private static class GrammarBuilder implements DeclHandler {
+
+        private final Map<String, ElementType> elements = MapUtil.map();
+        // <Element Name, <Attribute Name, Attribute Type>>, declared before or after the element
+        private final Map<String, Map<String, AttributeType>> attributes = MapUtil.map();
+        private final Map<String, List<String>> required = MapUtil.map();
+        private final StringBuilder entities = new StringBuilder();
+        private String unsupported;
+
+        @Override
+        public void elementDecl(final String name, final String model) {
+            if (!elements.containsKey(name)) {
+                elements.put(name, new ElementType(name, model));
+            }
+        }
+
+        @Override
+        public void attributeDecl(final String eName, final String aName, final String type, final String mode, final String value) {
+            Map<String, AttributeType> declared = attributes.get(eName);
+            if (declared == null) {
+                declared = MapUtil.map();
+                attributes.put(eName, declared);
+                required.put(eName, ListUtil.<String> list());
+            }
+            if (declared.containsKey(aName)) {
+                // the first declaration is binding
+                return;
+            }
+            Set<String> values = null;
+            if (type.startsWith("(")) {
+                values = new HashSet<String>();
+                for (String v : StringUtils.split(type.replaceAll("[()\\s]", StringUtils.EMPTY), "|")) {
+                    values.add(v);
+                }
+            } else if (!CDATA.equals(type)) {
+                unsupported = aName + StringUtils.SPACE + type;
+            }
+            declared.put(aName, new AttributeType(values, FIXED.equals(mode) ? value : null));
+            if (REQUIRED.equals(mode)) {
+                required.get(eName).add(aName);
+            }
+        }
+
+        @Override
+        public void internalEntityDecl(final String name, final String value) {
+            if (name.startsWith(PARAMETER_ENTITY_PREFIX)) {
+                return;
+            }
+            // the replacement text, as a literal which gives it back
+            entities.append("<!ENTITY ").append(name).append(" \"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '&' || c == '%' || c == '"' || c == '<' || Character.isWhitespace(c)) {
+                    entities.append("&#").append((int) c).append(';');
+                } else {
+                    entities.append(c);
+                }
+            }
+            entities.append("\">");
+        }
+
+        @Override
+        public void externalEntityDecl(final String name, final String publicId, final String systemId) {
+            if (!name.startsWith(PARAMETER_ENTITY_PREFIX)) {
+                unsupported = name + StringUtils.SPACE + systemId;
+            }
+        }
+
+        public Grammar build() throws SAXException {
+            if (unsupported != null) {
+                throw new SAXException(unsupported);
+            }
+            for (ElementType element : elements.values()) {
+                if (attributes.containsKey(element.name)) {
+                    element.attributes.putAll(attributes.get(element.name));
+                    element.required.addAll(required.get(element.name));
+                }
+            }
+            return new Grammar(Collections.unmodifiableMap(elements), entities.toString());
+        }
+
+    }
+
+    /*
+     * Checks the elements and attributes of a document against the grammar
+     * as they are read, and reports what does not conform as errors, in the
+     * words of a validating parser.
+     */
+    private static class DocumentValidator extends DefaultHandler {
+
+        private final Grammar grammar;
+        private final String root;
+        private final ErrorHandler errorHandler;
+        private final Deque<OpenElement> openElements = new ArrayDeque<OpenElement>();
+        private Locator locator;
+
+        public DocumentValidator(final Grammar grammar, final String root, final ErrorHandler errorHandler) {
+            this.grammar = grammar;
+            this.root = root;
+            this.errorHandler = errorHandler;
+        }
+
+        @Override
+        public void setDocumentLocator(final Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attrs) throws SAXException {
+            ElementType type = grammar.elements.get(qName);
+            OpenElement parent = openElements.peek();
+            if (parent == null && !qName.equals(root)) {
+                error("Document root element \"" + qName + "\", must match DOCTYPE root \"" + root + "\".");
+            }
+            if (type == null) {
+                error("Element type \"" + qName + "\" must be declared.");
+            }
+            if (parent != null) {
+                parent.child(qName);
+            }
+            openElements.push(new OpenElement(type));
+            if (type == null) {
+                return;
+            }
+
+            for (int i = 0; i < attrs.getLength(); i++) {
+                String name = attrs.getQName(i);
+                AttributeType attribute = type.attributes.get(name);
+                if (attribute == null) {
+                    error("Attribute \"" + name + "\" must be declared for element type \"" + qName + "\".");
+                    continue;
+                }
+                String value = attribute.values != null ? StringUtils.normalizeSpace(attrs.getValue(i)) : attrs.getValue(i);
+                if (attribute.fixed != null && !attribute.fixed.equals(value)) {
+                    error("Attribute \"" + name + "\" with value \"" + value + "\" must have a value of \"" + attribute.fixed + "\".");
+                }
+                if (attribute.values != null && !attribute.values.contains(value)) {
+                    error("Attribute \"" + name + "\" with value \"" + value + "\" must have a value from the list \"" + StringUtils.join(attribute.values, StringUtils.SPACE) + " \".");
+                }
+            }
+            for (String name : type.required) {
+                if (attrs.getIndex(name) < 0) {
+                    error("Attribute \"" + name + "\" is required and must be specified for element type \"" + qName + "\".");
+                }
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            OpenElement element = openElements.peek();
+            if (element != null) {
+                element.text(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            openElements.pop().end();
+        }
+
+        @Override
+        public void skippedEntity(final String name) throws SAXException {
+            error("The entity \"" + name + "\" was referenced, but not declared.");
+        }
+
+        private void error(final String message) throws SAXException {
+            errorHandler.error(new SAXParseException(message, locator));
+        }
+
+        private class OpenElement {
+
+            private final ElementType type; // null if not declared
+            private final StringBuilder children = new StringBuilder();
+
+            public OpenElement(final ElementType type) {
+                this.type = type;
+            }
+
+            public void child(final String name) throws SAXException {
+                if (type == null || type.isAny()) {
+                    return;
+                }
+                if (type.children != null) {
+                    children.append(name).append(ConstantsUtil.COMMA);
+                } else if (type.mixed == null || !type.mixed.contains(name)) {
+                    invalidContent();
+                }
+            }
+
+            public void text(final char[] ch, final int start, final int length) throws SAXException {
+                if (type == null || type.isAny() || type.mixed != null) {
+                    return;
+                }
+                // element content may only be spaced out
+                if (type.isEmpty() || !StringUtils.isWhitespace(new String(ch, start, length))) {
+                    invalidContent();
+                }
+            }
+
+            public void end() throws SAXException {
+                if (type != null && type.children != null && !type.children.matcher(children).matches()) {
+                    invalidContent();
+                }
+            }
+
+            private void invalidContent() throws SAXException {
+                error("The content of element type \"" + type.name + "\" must match \"" + type.model + "\".");
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.lttpp.eemory.exception;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.lttpp.eemory.client.model.ENNote;
+
+/**
+ * Some clips of a batch could not be sent, the others were sent or queued.
+ * Each failed clip is told along with what it failed with.
+ */
+@SuppressWarnings("serial")
+public class ClipBatchException extends Exception {
+
+    private final Map<ENNote, Exception> failures;
+
+    public ClipBatchException(final String message, final Map<ENNote, Exception> failures) {
+        super(message);
+        this.failures = failures;
+        for (Exception e : failures.values()) {
+            // the clips of a batch to the same note fail together
+            if (!ArrayUtils.contains(getSuppressed(), e)) {
+                addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * @return <Clip, What it failed with>, in the order of the clips
+     */
+    public Map<ENNote, Exception> getFailures() {
+        return failures;
+    }
+
+}
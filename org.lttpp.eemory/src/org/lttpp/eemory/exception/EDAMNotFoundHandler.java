@@ -8,6 +8,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.runtime.IStatus;
 import org.lttpp.eemory.client.EeClipper;
 import org.lttpp.eemory.client.EeClipperFactory;
+import org.lttpp.eemory.client.NotePages;
 import org.lttpp.eemory.client.impl.model.ENNoteImpl;
 import org.lttpp.eemory.client.model.ENNote;
 import org.lttpp.eemory.client.model.ENObject;
@@ -36,6 +37,8 @@ public class EDAMNotFoundHandler {
     public ENObject findNotebookByName(final String name) {
         try {
             EeClipper clipper = EeClipperFactory.getInstance().getEeClipper(token, false);
+            // the cached notebooks are what led to the not-found error
+            clipper.invalidateMetadata();
             Map<String, ENObject> map = clipper.listNotebooks();
             return map.get(name);
         } catch (Throwable e) {
@@ -52,8 +55,8 @@ public class EDAMNotFoundHandler {
             ENNote args = new ENNoteImpl();
             args.setNotebook(notebook);
             args.setName(name);
-            Map<String, ENNote> map = clipper.listNotesWithinNotebook(args);
-            noteFound = findNote(map, name);
+            clipper.invalidateMetadata();
+            noteFound = findNote(clipper.pageNotesWithinNotebook(args), name);
         } catch (EDAMNotFoundException e) {
             if (e.getIdentifier().equals(EDAMDataModel.Notebook_guid.toString())) {
                 ENObject nb = findNotebookByName(notebook.getName());
@@ -94,6 +97,31 @@ public class EDAMNotFoundHandler {
         return null;
     }
 
+    /**
+     * find note by name, page by page, stops as soon as a second note of the
+     * name turns up.
+     *
+     * @param pages
+     *            the notes to look through
+     * @param name
+     *            should be exact note name, not uuid.
+     * @return the only note of the name, null if there is none or more
+     */
+    public static ENNote findNote(final NotePages pages, final String name) throws Exception {
+        ENNote found = null;
+        for (List<ENNote> page = pages.next(); !page.isEmpty(); page = pages.next()) {
+            for (ENNote note : page) {
+                if (note.getName().equals(name)) {
+                    if (found != null) {
+                        return null;
+                    }
+                    found = note;
+                }
+            }
+        }
+        return found;
+    }
+
     private boolean fixNotFoundNotebookGuid(final ENNote args) {
         ENObject found = findNotebookByName(args.getNotebook().getName());
         if (found != null) {
@@ -17,7 +17,6 @@ import org.lttpp.eemory.util.LogUtil;
 
 import com.evernote.edam.error.EDAMNotFoundException;
 import com.evernote.edam.error.EDAMUserException;
-import com.evernote.thrift.transport.TTransportException;
 
 public class ThrowableHandler {
 
@@ -42,11 +41,6 @@ public class ThrowableHandler {
             return result;
         } else if (e instanceof OutOfDateException) {
             openError(shell, Messages.bind(Messages.Plugin_OutOfDate, EemoryPlugin.getVersion()));
-        } else if (e instanceof TTransportException) {
-            if (clipper != null) {
-                clipper.setInvalid();
-            }
-            openError(shell, ExceptionUtils.getRootCauseMessage(e));
         } else {
             openError(shell, ExceptionUtils.getRootCauseMessage(e));
         }
@@ -74,10 +68,6 @@ public class ThrowableHandler {
             return new EDAMUserExceptionHandler().handleRuntime(shell, (EDAMUserException) e, clipper);
         } else if (e instanceof OutOfDateException) {
             return LogUtil.error(Messages.bind(Messages.Plugin_OutOfDate, EemoryPlugin.getVersion()));
-        } else if (e instanceof TTransportException) {
-            if (clipper != null) {
-                clipper.setInvalid();
-            }
         } else if (e instanceof NoDataFoundException) {
             return LogUtil.warning(ExceptionUtils.getRootCauseMessage(e));
         }
@@ -91,10 +81,6 @@ public class ThrowableHandler {
     public static ExecutionException handleExecErr(final Throwable e, final EeClipper clipper) {
         if (e instanceof OutOfDateException) {
             return new ExecutionException(Messages.bind(Messages.Plugin_OutOfDate, EemoryPlugin.getVersion()));
-        } else if (e instanceof TTransportException) {
-            if (clipper != null) {
-                clipper.setInvalid();
-            }
         }
         return new ExecutionException(ExceptionUtils.getRootCauseMessage(e), e);
     }
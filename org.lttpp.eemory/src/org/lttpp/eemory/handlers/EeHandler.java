@@ -23,6 +23,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -142,38 +144,10 @@ public class EeHandler extends AbstractHandler implements ScreenCaptureProcessor
             }
             args.setTabWidth(TAB_WIDTH);
 
-            Job job = new Job(Messages.Plugin_Runtime_ClipFileToEvernote) {
+            Job job = new ClipJob(Messages.Plugin_Runtime_ClipFileToEvernote, args, HandlerUtil.getActiveShell(event)) {
                 @Override
-                protected IStatus run(final IProgressMonitor monitor) {
-                    monitor.beginTask(Messages.Plugin_Runtime_ClipFileToEvernote, 2);
-                    EeClipper clipper = null;
-                    try {
-                        clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                        monitor.worked(1);
-
-                        if (monitor.isCanceled()) {
-                            return LogUtil.cancel();
-                        }
-                        clipper.clipFile(args);
-                        monitor.worked(2);
-                    } catch (Throwable e) {
-                        IStatus status = ThrowableHandler.handleJobErr(e, clipper, args, HandlerUtil.getActiveShell(event));
-                        if (status == LogUtil.ok()) {
-                            try {
-                                clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                                clipper.clipFile(args);
-                            } catch (Throwable t) {
-                                return ThrowableHandler.handleJobErr(t, clipper);
-                            }
-                            try {
-                                saveIfNeeded(args);
-                            } catch (Throwable ignored) {
-                            }
-                        }
-                        return status;
-                    }
-                    monitor.done();
-                    return LogUtil.ok();
+                protected Future<Void> clip(final EeClipper clipper) {
+                    return clipper.clipFileAsync(args);
                 }
             };
             job.setUser(true);
@@ -210,38 +184,10 @@ public class EeHandler extends AbstractHandler implements ScreenCaptureProcessor
             args.setContent(EclipseUtil.getSelectedStyleText(styledText));
             args.setTabWidth(NumberUtil.gtZero(styledText.getTabs(), TAB_WIDTH));
 
-            Job job = new Job(Messages.Plugin_Runtime_ClipSelectionToEvernote) {
+            Job job = new ClipJob(Messages.Plugin_Runtime_ClipSelectionToEvernote, args, HandlerUtil.getActiveShell(event)) {
                 @Override
-                protected IStatus run(final IProgressMonitor monitor) {
-                    monitor.beginTask(Messages.Plugin_Runtime_ClipSelectionToEvernote, 2);
-                    EeClipper clipper = null;
-                    try {
-                        clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                        monitor.worked(1);
-
-                        if (monitor.isCanceled()) {
-                            return LogUtil.cancel();
-                        }
-                        clipper.clipSelection(args);
-                        monitor.worked(2);
-                    } catch (Throwable e) {
-                        IStatus status = ThrowableHandler.handleJobErr(e, clipper, args, HandlerUtil.getActiveShell(event));
-                        if (status == LogUtil.ok()) {
-                            try {
-                                clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                                clipper.clipSelection(args);
-                            } catch (Throwable t) {
-                                return ThrowableHandler.handleJobErr(t, clipper);
-                            }
-                            try {
-                                saveIfNeeded(args);
-                            } catch (Throwable ignored) {
-                            }
-                        }
-                        return status;
-                    }
-                    monitor.done();
-                    return LogUtil.ok();
+                protected Future<Void> clip(final EeClipper clipper) {
+                    return clipper.clipSelectionAsync(args);
                 }
             };
             job.setUser(true);
@@ -298,45 +244,22 @@ public class EeHandler extends AbstractHandler implements ScreenCaptureProcessor
             args.setAttachments(ListUtil.list(file));
             args.setTabWidth(TAB_WIDTH);
 
-            Job job = new Job(Messages.Plugin_Runtime_ClipFileToEvernote) {
+            Job job = new ClipJob(Messages.Plugin_Runtime_ClipFileToEvernote, args, shellForClipScreenshot) {
                 @Override
-                protected IStatus run(final IProgressMonitor monitor) {
-                    monitor.beginTask(Messages.Plugin_Runtime_ClipFileToEvernote, 3);
-                    EeClipper clipper = null;
-                    try {
-                        ImageIO.write(screenshot, ConstantsUtil.IMG_PNG, file);
-                        monitor.worked(1);
+                protected void prepare() throws IOException {
+                    ImageIO.write(screenshot, ConstantsUtil.IMG_PNG, file);
+                }
 
-                        clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                        monitor.worked(2);
+                @Override
+                protected Future<Void> clip(final EeClipper clipper) {
+                    return clipper.clipFileAsync(args);
+                }
 
-                        if (monitor.isCanceled()) {
-                            return LogUtil.cancel();
-                        }
-                        clipper.clipFile(args);
-                        monitor.worked(3);
-                    } catch (Throwable e) {
-                        IStatus status = ThrowableHandler.handleJobErr(e, clipper, args, shellForClipScreenshot);
-                        if (status == LogUtil.ok()) {
-                            try {
-                                clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                                clipper.clipFile(args);
-                            } catch (Throwable t) {
-                                return ThrowableHandler.handleJobErr(t, clipper);
-                            }
-                            try {
-                                saveIfNeeded(args);
-                            } catch (Throwable ignored) {
-                            }
-                        }
-                        return status;
-                    } finally {
-                        if (file != null && file.exists()) {
-                            file.delete();
-                        }
+                @Override
+                protected void cleanUp() {
+                    if (file != null && file.exists()) {
+                        file.delete();
                     }
-                    monitor.done();
-                    return LogUtil.ok();
                 }
             };
             job.setUser(true);
@@ -347,6 +270,108 @@ public class EeHandler extends AbstractHandler implements ScreenCaptureProcessor
         }
     }
 
+    /**
+     * A clip shown as a user job, sent in background through the async clip
+     * API of the clipper of the configured token, see
+     * {@link EeClipper#clipFileAsync(ENNote)}. Cancelling the job cancels the
+     * clip, along with the call to Evernote it is waiting for. If the clip
+     * fails in a way the user can fix, e.g. the note is gone, it is fixed and
+     * sent once more.
+     */
+    private abstract class ClipJob extends Job {
+
+        private final ENNote args;
+        private final Shell shell;
+        private volatile Future<Void> future;
+
+        public ClipJob(final String name, final ENNote args, final Shell shell) {
+            super(name);
+            this.args = args;
+            this.shell = shell;
+        }
+
+        protected void prepare() throws Exception {
+
+        }
+
+        protected abstract Future<Void> clip(EeClipper clipper);
+
+        protected void cleanUp() {
+
+        }
+
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            monitor.beginTask(getName(), 3);
+            try {
+                return doClip(monitor);
+            } finally {
+                cleanUp();
+                monitor.done();
+            }
+        }
+
+        private IStatus doClip(final IProgressMonitor monitor) {
+            EeClipper clipper = null;
+            try {
+                prepare();
+                monitor.worked(1);
+                clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
+                monitor.worked(1);
+
+                await(clip(clipper), monitor);
+                monitor.worked(1);
+            } catch (CancellationException e) {
+                return LogUtil.cancel();
+            } catch (Throwable e) {
+                IStatus status = ThrowableHandler.handleJobErr(e, clipper, args, shell);
+                if (status == LogUtil.ok()) {
+                    try {
+                        clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
+                        await(clip(clipper), monitor);
+                    } catch (CancellationException t) {
+                        return LogUtil.cancel();
+                    } catch (Throwable t) {
+                        return ThrowableHandler.handleJobErr(t, clipper);
+                    }
+                    try {
+                        saveIfNeeded(args);
+                    } catch (Throwable ignored) {
+                    }
+                }
+                return status;
+            }
+            return LogUtil.ok();
+        }
+
+        /*
+         * Wait for the clip, throw what it failed with as it is. A clip
+         * submitted while the job was being cancelled is cancelled here.
+         */
+        private void await(final Future<Void> future, final IProgressMonitor monitor) throws Throwable {
+            this.future = future;
+            if (monitor.isCanceled()) {
+                future.cancel(true);
+            }
+            try {
+                future.get();
+            } catch (java.util.concurrent.ExecutionException e) {
+                throw e.getCause();
+            } finally {
+                this.future = null;
+            }
+        }
+
+        @Override
+        protected void canceling() {
+            Future<Void> current = future;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+    }
+
     protected void configurationsClicked(final ExecutionEvent event) throws ExecutionException {
         ConfigurationsDialog.show(HandlerUtil.getActiveShellChecked(event));
     }
@@ -12,6 +12,7 @@ import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_OBJECT;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_TOKEN;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_TYPE;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_UUID;
+import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_KEY_WARM_UP;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_SECTION_COMMENTS;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_SECTION_NOTE;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_SECTION_NOTEBOOK;
@@ -51,6 +52,7 @@ import org.eclipse.swt.widgets.Text;
 import org.lttpp.eemory.Messages;
 import org.lttpp.eemory.client.EeClipper;
 import org.lttpp.eemory.client.EeClipperFactory;
+import org.lttpp.eemory.client.NotesListener;
 import org.lttpp.eemory.client.impl.model.ENNoteImpl;
 import org.lttpp.eemory.client.impl.model.ENObjectImpl;
 import org.lttpp.eemory.client.metadata.EDAMLimits;
@@ -80,10 +82,11 @@ public class ConfigurationsDialog extends TitleAreaDialog {
     private List<String> tags;
 
     private SimpleContentProposalProvider notebookProposalProvider;
-    private SimpleContentProposalProvider noteProposalProvider;
+    private NoteSearchContentProposalProvider noteProposalProvider;
     private SimpleContentProposalProvider tagsProposalProvider;
 
     private Map<String, TextField> fields;
+    private Button warmUpButton;
     // <Field Property, <Field Property, Field Value>>
     private Map<String, Map<String, String>> matrix;
     // <Field Property, User Input>
@@ -177,33 +180,32 @@ public class ConfigurationsDialog extends TitleAreaDialog {
         noteField.setTextLimit(EDAMLimits.EDAM_NOTE_TITLE_LEN_MAX);
         addField(PLUGIN_CONFIGS_NOTE, noteField);
         fetchNotesInProgres();
-        noteProposalProvider = EclipseUtil.enableFilteringContentAssist(noteField.getTextControl(), notes.keySet().toArray(new String[notes.size()]));
+        noteProposalProvider = new NoteSearchContentProposalProvider() {
+            @Override
+            protected EeClipper getClipper() {
+                return globalClipper;
+            }
+
+            @Override
+            protected ENObject getNotebook() {
+                return notebooks.get(getFieldInput(PLUGIN_CONFIGS_NOTEBOOK));
+            }
+
+            @Override
+            protected void notesFound(final Map<String, ENNote> found) {
+                notes.putAll(found);
+            }
+        };
+        EclipseUtil.enableNoteSearchContentAssist(noteField.getTextControl(), noteProposalProvider);
         noteField.getTextControl().addFocusListener(new FocusAdapter() {
             @Override
             public void focusGained(final FocusEvent e) {
                 clearHintText(PLUGIN_CONFIGS_NOTE);
                 if (shouldRefresh(PLUGIN_CONFIGS_NOTE, PLUGIN_CONFIGS_NOTEBOOK)) {
-                    final String hotebook = getFieldInput(PLUGIN_CONFIGS_NOTEBOOK);
-                    BusyIndicator.showWhile(Display.getDefault(), new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                notes = globalClipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(hotebook)));
-                            } catch (Throwable e) {
-                                boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, globalClipper);
-                                if (fixed) {
-                                    try {
-                                        notes = globalClipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(hotebook)));
-                                    } catch (Exception ignored) {
-                                    }
-                                }
-                            }
-                        }
-                    });
+                    // notes found are only valid within their notebook
+                    noteProposalProvider.cancel();
+                    notes = MapUtil.map();
                 }
-                String[] ns = notes.keySet().toArray(new String[notes.size()]);
-                Arrays.sort(ns);
-                noteProposalProvider.setProposals(ns);
             }
 
             @Override
@@ -258,6 +260,12 @@ public class ConfigurationsDialog extends TitleAreaDialog {
 
         // ----------------------
 
+        warmUpButton = new Button(container, SWT.CHECK);
+        warmUpButton.setText(Messages.Plugin_Configs_WarmUp);
+        warmUpButton.setSelection(IDialogSettingsUtil.getBoolean(PLUGIN_SETTINGS_KEY_WARM_UP));
+
+        // ----------------------
+
         postCreateDialogArea();
 
         // ----------------------
@@ -343,8 +351,17 @@ public class ConfigurationsDialog extends TitleAreaDialog {
                 @Override
                 public void run(final IProgressMonitor monitor) {
                     monitor.beginTask(Messages.Plugin_Configs_FetchingNotes, 1);
+                    NotesListener progress = new NotesListener() {
+                        private int fetched = 0;
+
+                        @Override
+                        public void notesFound(final Map<String, ENNote> found) {
+                            fetched += found.size();
+                            monitor.subTask(Messages.bind(Messages.Plugin_Configs_NotesFetched, fetched));
+                        }
+                    };
                     try {
-                        notes = globalClipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(notebook)));
+                        notes = globalClipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(notebook)), progress);
                     } catch (Throwable e) {
                         boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, globalClipper);
                         if (fixed) {
@@ -364,6 +381,34 @@ public class ConfigurationsDialog extends TitleAreaDialog {
         }
     }
 
+    /*
+     * Look the note up by its exact title, in case it is typed without
+     * picking a proposal, or before the search results arrive.
+     */
+    private void fetchNoteByName(final String name) {
+        if (StringUtils.isBlank(name) || notes.containsKey(name)) {
+            return;
+        }
+        final ENNote args = ENNoteImpl.forNotebook(notebooks.get(getFieldInput(PLUGIN_CONFIGS_NOTEBOOK)));
+        args.setName(name);
+        BusyIndicator.showWhile(Display.getDefault(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notes.putAll(globalClipper.listNotesWithinNotebook(args));
+                } catch (Throwable e) {
+                    boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, globalClipper);
+                    if (fixed) {
+                        try {
+                            notes.putAll(globalClipper.listNotesWithinNotebook(args));
+                        } catch (Exception ignored) {
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     private void fetchTagsInProgress() {
         if (isCanceled()) {
             return;
@@ -438,6 +483,7 @@ public class ConfigurationsDialog extends TitleAreaDialog {
 
     protected void refreshPressed() {
         authInProgress();
+        globalClipper.invalidateMetadata();
 
         // refresh notebook
         fetchNotebooksInProgres();
@@ -578,6 +624,7 @@ public class ConfigurationsDialog extends TitleAreaDialog {
             IDialogSettingsUtil.set(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_OBJECT, null);
         }
 
+        fetchNoteByName(getFieldInput(PLUGIN_CONFIGS_NOTE));
         diagnoseNote();
         String noteValue = getFieldInput(PLUGIN_CONFIGS_NOTE);
         ENNote note = notes.get(noteValue);
@@ -587,6 +634,8 @@ public class ConfigurationsDialog extends TitleAreaDialog {
         setSection(PLUGIN_SETTINGS_SECTION_TAGS, tagsValue, isFieldEditable(PLUGIN_CONFIGS_TAGS));
 
         setSection(PLUGIN_SETTINGS_SECTION_COMMENTS, getFieldInput(PLUGIN_CONFIGS_COMMENTS), isFieldEditable(PLUGIN_CONFIGS_COMMENTS));
+
+        IDialogSettingsUtil.set(PLUGIN_SETTINGS_KEY_WARM_UP, warmUpButton.getSelection());
     }
 
     private void restoreSettings(final String label) {
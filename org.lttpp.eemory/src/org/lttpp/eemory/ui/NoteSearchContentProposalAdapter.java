@@ -0,0 +1,25 @@
+package org.lttpp.eemory.ui;
+
+import org.eclipse.jface.fieldassist.ContentProposalAdapter;
+import org.eclipse.jface.fieldassist.IContentProposalProvider;
+import org.eclipse.jface.fieldassist.IControlContentAdapter;
+import org.eclipse.swt.widgets.Control;
+
+public class NoteSearchContentProposalAdapter extends ContentProposalAdapter {
+
+    public NoteSearchContentProposalAdapter(final Control control, final IControlContentAdapter controlContentAdapter, final IContentProposalProvider proposalProvider) {
+        super(control, controlContentAdapter, proposalProvider, null, null);
+    }
+
+    /**
+     * Show the proposals again, e.g. when the search results arrive after the
+     * popup was opened.
+     */
+    public void refresh() {
+        if (getControl().isFocusControl()) {
+            closeProposalPopup();
+            openProposalPopup();
+        }
+    }
+
+}
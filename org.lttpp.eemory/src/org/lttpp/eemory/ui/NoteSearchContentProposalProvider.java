@@ -0,0 +1,180 @@
+package org.lttpp.eemory.ui;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jface.fieldassist.ContentProposal;
+import org.eclipse.jface.fieldassist.IContentProposal;
+import org.eclipse.jface.fieldassist.IContentProposalProvider;
+import org.eclipse.swt.widgets.Control;
+import org.lttpp.eemory.Constants;
+import org.lttpp.eemory.client.EeClipper;
+import org.lttpp.eemory.client.impl.model.ENNoteImpl;
+import org.lttpp.eemory.client.model.ENNote;
+import org.lttpp.eemory.client.model.ENObject;
+import org.lttpp.eemory.util.ConstantsUtil;
+import org.lttpp.eemory.util.ListUtil;
+import org.lttpp.eemory.util.LogUtil;
+import org.lttpp.eemory.util.MapUtil;
+import org.lttpp.eemory.util.ThreadUtil;
+
+/**
+ * Proposes note titles by searching the notebook on Evernote as the user
+ * types, instead of listing every note of the notebook up front.
+ *
+ * A search is sent once the user stops typing for a moment, a search that is
+ * overtaken by further typing is cancelled, and the results of recent
+ * searches are kept, so the cost is proportional to what the user types, not
+ * to the size of the notebook. All the state is only touched in the UI
+ * thread.
+ */
+public abstract class NoteSearchContentProposalProvider implements IContentProposalProvider {
+
+    private static final ScheduledExecutorService searcher = ThreadUtil.newDaemonScheduler(Constants.NOTE_SEARCH_THREAD_NAME);
+
+    // <Notebook Guid:Query, Titles>
+    private final Map<String, List<String>> results = MapUtil.lruMap(Constants.NOTE_SEARCH_CACHE_SIZE);
+
+    private NoteSearchContentProposalAdapter adapter;
+    private ScheduledFuture<?> pending;
+    private int generation;
+
+    /**
+     * @return the clipper to search with, called in the UI thread.
+     */
+    protected abstract EeClipper getClipper();
+
+    /**
+     * @return the notebook to search in, null for all notebooks, called in
+     *         the UI thread.
+     */
+    protected abstract ENObject getNotebook();
+
+    /**
+     * Called in the UI thread with the notes found by the latest search.
+     *
+     * @param notes
+     *            <Title, Note> of the notes found
+     */
+    protected abstract void notesFound(Map<String, ENNote> notes);
+
+    @Override
+    public IContentProposal[] getProposals(final String contents, final int position) {
+        String query = normalize(contents);
+        if (StringUtils.isEmpty(query)) {
+            cancel();
+            return new IContentProposal[0];
+        }
+
+        ENObject notebook = getNotebook();
+        List<String> titles = results.get(key(notebook, query));
+        if (titles == null) {
+            search(notebook, query);
+            titles = filter(closest(notebook, query), query);
+        }
+
+        IContentProposal[] proposals = new IContentProposal[titles.size()];
+        for (int i = 0; i < titles.size(); i++) {
+            proposals[i] = new ContentProposal(titles.get(i));
+        }
+        return proposals;
+    }
+
+    /**
+     * Cancel the search in flight, e.g. when the notebook is changed.
+     */
+    public void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    private void search(final ENObject notebook, final String query) {
+        cancel();
+        final int thisGeneration = generation;
+        final EeClipper clipper = getClipper();
+        final Control control = adapter.getControl();
+        pending = searcher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ENNote args = ENNoteImpl.forNotebook(notebook);
+                args.setName(query);
+                final Map<String, ENNote> notes;
+                try {
+                    notes = clipper.findNotesWithinNotebook(args, Constants.NOTE_SEARCH_MAX_NOTES);
+                } catch (Exception e) {
+                    // type-ahead is best effort, the field still takes any title
+                    LogUtil.logCancel(e);
+                    return;
+                }
+                if (Thread.currentThread().isInterrupted() || control.isDisposed()) {
+                    return;
+                }
+                control.getDisplay().asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (control.isDisposed()) {
+                            return;
+                        }
+                        String[] titles = notes.keySet().toArray(new String[notes.size()]);
+                        Arrays.sort(titles);
+                        results.put(key(notebook, query), ListUtil.toList(titles));
+                        if (thisGeneration == generation) {
+                            pending = null;
+                            notesFound(notes);
+                            adapter.refresh();
+                        }
+                    }
+                });
+            }
+        }, Constants.NOTE_SEARCH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Results of the longest query typed before that this query extends, to be
+     * shown until the results of this query arrive.
+     */
+    private List<String> closest(final ENObject notebook, final String query) {
+        for (int i = query.length() - 1; i > 0; i--) {
+            List<String> titles = results.get(key(notebook, query.substring(0, i)));
+            if (titles != null) {
+                return titles;
+            }
+        }
+        return ListUtil.list();
+    }
+
+    private List<String> filter(final List<String> titles, final String query) {
+        String[] words = StringUtils.split(query);
+        List<String> filtered = ListUtil.list();
+        titleLoop: for (String title : titles) {
+            for (String word : words) {
+                if (!StringUtils.containsIgnoreCase(title, word)) {
+                    continue titleLoop;
+                }
+            }
+            filtered.add(title);
+        }
+        return filtered;
+    }
+
+    private String normalize(final String contents) {
+        return StringUtils.normalizeSpace(StringUtils.lowerCase(contents));
+    }
+
+    private String key(final ENObject notebook, final String query) {
+        return (notebook != null ? StringUtils.defaultString(notebook.getGuid()) : StringUtils.EMPTY) + ConstantsUtil.COLON + query;
+    }
+
+    public void setContentProposalAdapter(final NoteSearchContentProposalAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+}
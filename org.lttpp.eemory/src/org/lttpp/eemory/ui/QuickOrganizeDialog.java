@@ -16,7 +16,6 @@ import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_SECTION_NOTEBOOK;
 import static org.lttpp.eemory.Constants.PLUGIN_SETTINGS_SECTION_TAGS;
 import static org.lttpp.eemory.Constants.TAGS_SEPARATOR;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -26,7 +25,6 @@ import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.ProgressMonitorDialog;
-import org.eclipse.jface.fieldassist.SimpleContentProposalProvider;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.BusyIndicator;
@@ -73,7 +71,7 @@ public class QuickOrganizeDialog extends Dialog {
     private Map<String, ENNote> notes; // <Name, Guid>
     private List<String> tags;
 
-    private SimpleContentProposalProvider noteProposalProvider;
+    private NoteSearchContentProposalProvider noteProposalProvider;
 
     private Map<String, Text> fields;
     private ENNote quickSettings;
@@ -130,33 +128,31 @@ public class QuickOrganizeDialog extends Dialog {
             Text noteField = createLabelTextField(container, Messages.Plugin_Configs_Note);
             noteField.setTextLimit(EDAMLimits.EDAM_NOTE_TITLE_LEN_MAX);
             addField(PLUGIN_CONFIGS_NOTE, noteField);
-            fetchNotesInProgres();
-            noteProposalProvider = EclipseUtil.enableFilteringContentAssist(noteField, notes.keySet().toArray(new String[notes.size()]));
+            noteProposalProvider = new NoteSearchContentProposalProvider() {
+                @Override
+                protected EeClipper getClipper() {
+                    return clipper;
+                }
+
+                @Override
+                protected ENObject getNotebook() {
+                    return getNoteNotebook();
+                }
+
+                @Override
+                protected void notesFound(final Map<String, ENNote> found) {
+                    notes.putAll(found);
+                }
+            };
+            EclipseUtil.enableNoteSearchContentAssist(noteField, noteProposalProvider);
             if (shouldShow(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_GUID)) {
                 noteField.addFocusListener(new FocusAdapter() {
                     @Override
                     public void focusGained(final FocusEvent e) {
                         if (shouldRefresh(PLUGIN_CONFIGS_NOTE, PLUGIN_CONFIGS_NOTEBOOK)) {
-                            final String hotebook = getFieldValue(PLUGIN_CONFIGS_NOTEBOOK);
-                            BusyIndicator.showWhile(Display.getDefault(), new Runnable() {
-                                @Override
-                                public void run() {
-                                    try {
-                                        notes = clipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(hotebook)));
-                                    } catch (Throwable e) {
-                                        boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, clipper);
-                                        if (fixed) {
-                                            try {
-                                                notes = clipper.listNotesWithinNotebook(ENNoteImpl.forNotebook(notebooks.get(hotebook)));
-                                            } catch (Exception ignored) {
-                                            }
-                                        }
-                                    }
-                                }
-                            });
-                            String[] ns = notes.keySet().toArray(new String[notes.size()]);
-                            Arrays.sort(ns);
-                            noteProposalProvider.setProposals(ns);
+                            // notes found are only valid within their notebook
+                            noteProposalProvider.cancel();
+                            notes = MapUtil.map();
                         }
                     }
                 });
@@ -241,48 +237,51 @@ public class QuickOrganizeDialog extends Dialog {
         }
     }
 
-    private void fetchNotesInProgres() {
-        if (isCanceled()) {
+    /*
+     * Look the note up by its exact title, in case it is typed without
+     * picking a proposal, or before the search results arrive.
+     */
+    private void fetchNoteByName(final String name) {
+        if (StringUtils.isBlank(name) || notes.containsKey(name)) {
             return;
         }
-        try {
-            new ProgressMonitorDialog(shell).run(true, true, new IRunnableWithProgress() {
-                @Override
-                public void run(final IProgressMonitor monitor) {
-                    monitor.beginTask(Messages.Plugin_Configs_FetchingNotes, 1);
-                    try {
-                        doFetchNotes();
-                    } catch (Throwable e) {
-                        boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, clipper);
-                        if (fixed) {
-                            try {
-                                clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
-                                doFetchNotes();
-                            } catch (Exception ignored) {
-                            }
+        final ENNote args = ENNoteImpl.forNotebook(getNoteNotebook());
+        args.setName(name);
+        BusyIndicator.showWhile(Display.getDefault(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notes.putAll(clipper.listNotesWithinNotebook(args));
+                } catch (Throwable e) {
+                    boolean fixed = ThrowableHandler.handleDesignTimeErr(shell, e, clipper);
+                    if (fixed) {
+                        try {
+                            clipper = EeClipperFactory.getInstance().getEeClipper(EncryptionUtil.decrypt(IDialogSettingsUtil.get(PLUGIN_SETTINGS_KEY_TOKEN)), false);
+                            notes.putAll(clipper.listNotesWithinNotebook(args));
+                        } catch (Exception ignored) {
                         }
                     }
-                    setCanceled(monitor.isCanceled());
-                    monitor.done();
                 }
-            });
-        } catch (Throwable e) {
-            ThrowableHandler.handleDesignTimeErr(shell, e);
-        }
+            }
+        });
     }
 
-    private void doFetchNotes() throws Exception {
-        ENNote note = ENNoteImpl.forNotebook(ENObjectImpl.forNameAndGuid(IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_NAME), IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_GUID)));
+    // the notebook the note is looked up in, which is the configured one if it is not quick specified
+    private ENObject getNoteNotebook() {
+        if (shouldShow(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_GUID)) {
+            return notebooks.get(getFieldValue(PLUGIN_CONFIGS_NOTEBOOK));
+        }
+        ENObject notebook = ENObjectImpl.forNameAndGuid(IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_NAME), IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_GUID));
         String typeString= IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_TYPE);
         if (StringUtils.isNotBlank(typeString)) {
-            note.getNotebook().setType(ENObjectType.forName(typeString));
+            notebook.setType(ENObjectType.forName(typeString));
         }
         String serializedString = IDialogSettingsUtil.get(PLUGIN_SETTINGS_SECTION_NOTEBOOK, PLUGIN_SETTINGS_KEY_OBJECT);
         if (StringUtils.isNotBlank(serializedString)) {
             Object linkedObject = ObjectUtil.deserialize(serializedString);
-            note.getNotebook().setLinkedObject(linkedObject);
+            notebook.setLinkedObject(linkedObject);
         }
-        notes = clipper.listNotesWithinNotebook(note);
+        return notebook;
     }
 
     private void fetchTagsInProgress() {
@@ -378,6 +377,7 @@ public class QuickOrganizeDialog extends Dialog {
             quickSettings.getNotebook().setLinkedObject(nb.getLinkedObject());
         }
 
+        fetchNoteByName(getFieldValue(PLUGIN_CONFIGS_NOTE));
         ENNote note = notes.get(getFieldValue(PLUGIN_CONFIGS_NOTE));
         quickSettings.setName(note != null ? note.getName() : getFieldValue(PLUGIN_CONFIGS_NOTE));
         quickSettings.setGuid(note != null ? note.getGuid() : null);
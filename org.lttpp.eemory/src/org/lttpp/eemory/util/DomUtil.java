@@ -1,5 +1,6 @@
 package org.lttpp.eemory.util;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -15,11 +16,31 @@ public class DomUtil {
     }
 
     public static String toString(final List<Node> nodeList) {
-        String string = StringUtils.EMPTY;
+        int length = 0;
         for (Node n : nodeList) {
-            string += toString(n);
+            if (n != null) {
+                length += n.getMarkupLength();
+            }
+        }
+        StringBuilder markup = new StringBuilder(length);
+        try {
+            write(nodeList, markup);
+        } catch (IOException e) {
+            // could not happen, StringBuilder does not throw
+        }
+        return markup.toString();
+    }
+
+    /**
+     * Write the markup of the nodes to the given output one after another,
+     * see {@link Node#writeMarkup(Appendable)}.
+     */
+    public static void write(final List<Node> nodeList, final Appendable out) throws IOException {
+        for (Node n : nodeList) {
+            if (n != null) {
+                n.writeMarkup(out);
+            }
         }
-        return string;
     }
 
     public static DocumentBuilder getBuilder() throws FactoryConfigurationError {
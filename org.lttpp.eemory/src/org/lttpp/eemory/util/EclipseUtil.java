@@ -14,6 +14,7 @@ import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.MessageDialogWithToggle;
@@ -37,6 +38,7 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.handlers.HandlerUtil;
+import org.eclipse.ui.statushandlers.StatusManager;
 import org.lttpp.eemory.Constants;
 import org.lttpp.eemory.Messages;
 import org.lttpp.eemory.enml.FontStyle;
@@ -44,6 +46,8 @@ import org.lttpp.eemory.enml.StyleText;
 import org.lttpp.eemory.exception.NoDataFoundException;
 import org.lttpp.eemory.ui.ConfigContentProposalProvider;
 import org.lttpp.eemory.ui.ConfigTextContentAdapter;
+import org.lttpp.eemory.ui.NoteSearchContentProposalAdapter;
+import org.lttpp.eemory.ui.NoteSearchContentProposalProvider;
 
 public class EclipseUtil {
 
@@ -223,6 +227,23 @@ public class EclipseUtil {
         return contentProposalProvider;
     }
 
+    public static void enableNoteSearchContentAssist(final Control control, final NoteSearchContentProposalProvider contentProposalProvider) {
+        TextContentAdapter textContentAdapter = new TextContentAdapter();
+
+        NoteSearchContentProposalAdapter contentProposalAdapter = new NoteSearchContentProposalAdapter(control, textContentAdapter, contentProposalProvider);
+        contentProposalAdapter.setProposalAcceptanceStyle(ContentProposalAdapter.PROPOSAL_REPLACE);
+        contentProposalProvider.setContentProposalAdapter(contentProposalAdapter);
+    }
+
+    /**
+     * Show the status to the user and log it, from any thread and without
+     * waiting for the user, the statuses shown meanwhile are gathered in the
+     * same dialog.
+     */
+    public static void showStatus(final IStatus status) {
+        StatusManager.getManager().handle(status, StatusManager.SHOW | StatusManager.LOG);
+    }
+
     public static void openErrorSyncly(final Shell shell, final String title, final String message) {
         Display.getDefault().syncExec(new Runnable() {
             @Override
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.lttpp.eemory.Constants;
@@ -50,6 +51,31 @@ public class EvernoteUtil {
         return data;
     }
 
+    /**
+     * The id of the user the token belongs to, as the token tells, e.g. 8f of
+     * S=s1:U=8f:E=..., or null if the token does not tell.
+     */
+    public static String userId(final String token) {
+        for (String part : StringUtils.split(token, ConstantsUtil.COLON)) {
+            if (part.startsWith(Constants.EDAM_TOKEN_USER_ID)) {
+                return StringUtils.removeStart(part, Constants.EDAM_TOKEN_USER_ID);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The key of the account the token belongs to, for what is kept per
+     * account. An account is its user, so the tokens of a user, e.g. the new
+     * one after re-authentication, share the key; a token which does not tell
+     * its user is an account of its own. The key is a hash, fit for a file
+     * name, which does not give the token away.
+     */
+    public static String account(final String token) {
+        String userId = userId(token);
+        return DigestUtils.sha256Hex(brand() + ConstantsUtil.COLON + (userId != null ? Constants.EDAM_TOKEN_USER_ID + userId : token));
+    }
+
     public static EvernoteService evernoteService() {
         return brand().service();
     }
@@ -58,6 +58,13 @@ public final class ListUtil {
         return l;
     }
 
+    public static <T> List<T> toList(final Collection<? extends T> collection) {
+        if (collection == null) {
+            return null;
+        }
+        return new ArrayList<T>(collection);
+    }
+
     public static <T> List<T> list(final int initialCapacity) {
         return new ArrayList<T>(initialCapacity);
     }
@@ -19,6 +19,10 @@ public class LogUtil {
         }
     }
 
+    public static void log(final IStatus status) {
+        log.log(status);
+    }
+
     public static void logInfo(final Throwable exception) {
         log.log(info(exception));
     }
@@ -21,6 +21,17 @@ public final class MapUtil {
         return new LinkedHashMap<K, V>();
     }
 
+    public static <K, V> LinkedHashMap<K, V> lruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
     public static <K, V> Map<K, V> map(final int initialCapacity) {
         return new HashMap<K, V>(initialCapacity);
     }
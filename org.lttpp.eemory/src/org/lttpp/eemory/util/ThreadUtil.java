@@ -0,0 +1,82 @@
+package org.lttpp.eemory.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ThreadUtil {
+
+    private static final long IDLE_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * A bounded pool of daemon threads, idle threads are released after a
+     * while, so an unused pool costs nothing and never blocks the workbench
+     * from shutting down.
+     *
+     * @param name
+     *            prefix of the thread names
+     * @param nThreads
+     *            the maximum number of threads
+     * @return the thread pool
+     */
+    public static ExecutorService newDaemonThreadPool(final String name, final int nThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Same as {@link #newDaemonThreadPool(String, int)}, but at most
+     * queueCapacity tasks wait for a thread, more are rejected with a
+     * <code>RejectedExecutionException</code>.
+     *
+     * @param name
+     *            prefix of the thread names
+     * @param nThreads
+     *            the maximum number of threads
+     * @param queueCapacity
+     *            the maximum number of waiting tasks
+     * @return the thread pool
+     */
+    public static ExecutorService newBoundedDaemonThreadPool(final String name, final int nThreads, final int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A single daemon thread running delayed tasks, cancelled tasks are
+     * dropped from the queue right away.
+     *
+     * @param name
+     *            prefix of the thread name
+     * @return the scheduler
+     */
+    public static ScheduledExecutorService newDaemonScheduler(final String name) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, daemonThreadFactory(name));
+        executor.setKeepAliveTime(IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    public static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, name + ConstantsUtil.MINUS + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}